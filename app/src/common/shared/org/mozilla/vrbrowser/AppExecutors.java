@@ -12,29 +12,57 @@ public class AppExecutors {
 
     private final Executor mDiskIO;
 
+    private final Executor mDiskRead;
+
     private final Executor mNetworkIO;
 
+    private final Executor mListDiff;
+
+    private final Executor mKeyboardCandidates;
+
     private final Executor mMainThread;
 
-    private AppExecutors(Executor diskIO, Executor networkIO, Executor mainThread) {
+    private AppExecutors(Executor diskIO, Executor diskRead, Executor networkIO, Executor listDiff, Executor keyboardCandidates, Executor mainThread) {
         this.mDiskIO = diskIO;
+        this.mDiskRead = diskRead;
         this.mNetworkIO = networkIO;
+        this.mListDiff = listDiff;
+        this.mKeyboardCandidates = keyboardCandidates;
         this.mMainThread = mainThread;
     }
 
     public AppExecutors() {
-        this(Executors.newSingleThreadExecutor(), Executors.newFixedThreadPool(3),
-                new MainThreadExecutor());
+        this(Executors.newSingleThreadExecutor(), Executors.newFixedThreadPool(2), Executors.newFixedThreadPool(3),
+                Executors.newSingleThreadExecutor(), Executors.newSingleThreadExecutor(), new MainThreadExecutor());
     }
 
     public Executor diskIO() {
         return mDiskIO;
     }
 
+    public Executor diskRead() {
+        return mDiskRead;
+    }
+
     public Executor networkIO() {
         return mNetworkIO;
     }
 
+    /**
+     * Background executor shared by the RecyclerView adapters to calculate list diffs.
+     */
+    public Executor listDiff() {
+        return mListDiff;
+    }
+
+    /**
+     * Background executor used to compute the keyboard candidates. It's single threaded so the
+     * keyboards don't need to synchronize their dictionaries.
+     */
+    public Executor keyboardCandidates() {
+        return mKeyboardCandidates;
+    }
+
     public Executor mainThread() {
         return mMainThread;
     }
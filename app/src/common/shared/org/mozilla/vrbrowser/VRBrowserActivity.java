@@ -304,6 +304,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
 
     protected void initializeWidgets() {
         UISurfaceTextureRenderer.setUseHardwareAcceleration(SettingsStore.getInstance(getBaseContext()).isUIHardwareAccelerationEnabled());
+        BitmapCache.getInstance(this).setHardwareBitmapsEnabled(SettingsStore.getInstance(getBaseContext()).isUIHardwareAccelerationEnabled());
         UISurfaceTextureRenderer.setRenderActive(true);
         mWindows = new Windows(this);
         mWindows.setDelegate(new Windows.Delegate() {
@@ -416,6 +417,9 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
         mAudioEngine.pauseEngine();
 
         mWindows.onPause();
+        BitmapCache.getInstance(this).onPause();
+        // The buffered history visits are written in the background, the UI thread doesn't wait for them.
+        SessionStore.get().getHistoryStore().flush();
 
         for (Widget widget: mWidgets.values()) {
             widget.onPause();
@@ -659,9 +663,7 @@ public class VRBrowserActivity extends PlatformActivity implements WidgetManager
             case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
             case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
             case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
-                // It looks like these come in all at the same time so just always suspend inactive Sessions.
-                Log.d(LOGTAG, "Memory pressure, suspending inactive sessions.");
-                SessionStore.get().suspendAllInactiveSessions();
+                SessionStore.get().onTrimMemory(level);
                 break;
             default:
                 Log.e(LOGTAG, "onTrimMemory unknown level: " + level);
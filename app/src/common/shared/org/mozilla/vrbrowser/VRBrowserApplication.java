@@ -33,7 +33,7 @@ public class VRBrowserApplication extends Application {
 
         mAppExecutors = new AppExecutors();
         mPlaces = new Places(this);
-        mBitmapCache = new BitmapCache(this, mAppExecutors.diskIO(), mAppExecutors.mainThread());
+        mBitmapCache = new BitmapCache(this, mAppExecutors.diskIO(), mAppExecutors.diskRead(), mAppExecutors.mainThread());
         mServices = new Services(this, mPlaces);
         mAccounts = new Accounts(this);
 
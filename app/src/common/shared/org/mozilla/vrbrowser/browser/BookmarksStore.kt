@@ -11,6 +11,9 @@ import android.os.Looper
 import androidx.lifecycle.ProcessLifecycleOwner
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.future.future
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import mozilla.appservices.places.BookmarkRoot
 import mozilla.components.concept.storage.BookmarkNode
 import mozilla.components.concept.storage.BookmarkNodeType
@@ -63,13 +66,23 @@ class BookmarksStore constructor(val context: Context) {
     private val titles = rootTitles(context)
     private val accountManager = (context.applicationContext as VRBrowserApplication).services.accountManager
 
+    // In-memory copy of the whole bookmark tree and an index of the bookmarked urls, so opening the
+    // bookmarks panel and isBookmarked don't query Places. Local changes are applied to the cached
+    // tree in place, and it's reloaded after a sync.
+    private val cacheMutex = Mutex()
+    @Volatile private var cachedRoot: BookmarkNode? = null
+    @Volatile private var urlIndex: Map<String, String> = emptyMap()
+
     // Bookmarks might have changed during sync, so notify our listeners.
     private val syncStatusObserver = object : SyncStatusObserver {
         override fun onStarted() {}
 
         override fun onIdle() {
             Logger(LOGTAG).debug("Detected that sync is finished, notifying listeners")
-            notifyListeners()
+            GlobalScope.launch {
+                reloadCache()
+                notifyListeners()
+            }
         }
 
         override fun onError(error: Exception?) {}
@@ -79,6 +92,9 @@ class BookmarksStore constructor(val context: Context) {
         accountManager.registerForSyncEvents(
             syncStatusObserver, ProcessLifecycleOwner.get(), false
         )
+        GlobalScope.launch {
+            getCachedRoot()
+        }
     }
 
     interface BookmarkListener {
@@ -102,7 +118,10 @@ class BookmarksStore constructor(val context: Context) {
 
     internal fun updateStorage() {
         storage = (context.applicationContext as VRBrowserApplication).places.bookmarks
-        notifyListeners()
+        GlobalScope.launch {
+            reloadCache()
+            notifyListeners()
+        }
     }
 
     fun getBookmarks(guid: String): CompletableFuture<List<BookmarkNode>?> = GlobalScope.future {
@@ -121,11 +140,11 @@ class BookmarksStore constructor(val context: Context) {
                     )
                 )
                 // Append all of the bookmarks in the mobile root.
-                storage.getTree(BookmarkRoot.Mobile.id)?.children?.let { withDesktopFolder.addAll(it) }
+                getCachedTree(BookmarkRoot.Mobile.id, false)?.children?.let { withDesktopFolder.addAll(it) }
                 withDesktopFolder
             }
             DESKTOP_ROOT -> {
-                val root = storage.getTree(BookmarkRoot.Root.id)
+                val root = getCachedTree(BookmarkRoot.Root.id, false)
                 root?.children
                     ?.filter { it.guid != BookmarkRoot.Mobile.id }
                     ?.map {
@@ -133,35 +152,55 @@ class BookmarksStore constructor(val context: Context) {
                     }
                 }
             else -> {
-                storage.getTree(guid)?.children?.toList()
+                getCachedTree(guid, false)?.children?.toList()
             }
         }
     }
 
     fun addBookmark(aURL: String, aTitle: String) = GlobalScope.future {
-        storage.addItem(BookmarkRoot.Mobile.id, aURL, aTitle, null)
+        modify({ storage.addItem(BookmarkRoot.Mobile.id, aURL, aTitle, null) }) { root, guid ->
+            insertNode(root, BookmarkRoot.Mobile.id, BookmarkNode(
+                    BookmarkNodeType.ITEM,
+                    guid,
+                    BookmarkRoot.Mobile.id,
+                    title = aTitle,
+                    children = null,
+                    position = null,
+                    url = aURL
+            ))
+        }
         notifyAddedListeners()
     }
 
     fun deleteBookmarkByURL(aURL: String) = GlobalScope.future {
-        val bookmark = getBookmarkByUrl(aURL)
-        if (bookmark != null) {
-            storage.deleteNode(bookmark.guid)
+        getCachedRoot()
+        val guid = urlIndex[aURL] ?: getBookmarkByUrl(aURL)?.guid
+        if (guid != null) {
+            modify({ storage.deleteNode(guid) }) { root, _ -> removeNode(root, guid) }
         }
         notifyListeners()
     }
 
     fun deleteBookmarkById(aId: String) = GlobalScope.future {
-        storage.deleteNode(aId)
+        modify({ storage.deleteNode(aId) }) { root, _ -> removeNode(root, aId) }
         notifyListeners()
     }
 
-    fun isBookmarked(aURL: String): CompletableFuture<Boolean> = GlobalScope.future {
-        getBookmarkByUrl(aURL) != null
+    fun isBookmarked(aURL: String): CompletableFuture<Boolean> {
+        if (cachedRoot != null) {
+            return CompletableFuture.completedFuture(urlIndex.containsKey(aURL))
+        }
+        return GlobalScope.future {
+            if (getCachedRoot() != null) {
+                urlIndex.containsKey(aURL)
+            } else {
+                getBookmarkByUrl(aURL) != null
+            }
+        }
     }
 
     fun getTree(guid: String, recursive: Boolean): CompletableFuture<List<BookmarkNode>?> = GlobalScope.future {
-        storage.getTree(guid, recursive)?.children
+        getCachedTree(guid, recursive)?.children
                 ?.map { it.copy(title = titles[it.guid]) }
     }
 
@@ -184,6 +223,95 @@ class BookmarksStore constructor(val context: Context) {
         return null
     }
 
+    private suspend fun getCachedRoot(): BookmarkNode? {
+        cachedRoot?.let { return it }
+        return cacheMutex.withLock {
+            cachedRoot ?: loadCache()
+        }
+    }
+
+    private suspend fun reloadCache() {
+        cacheMutex.withLock {
+            loadCache()
+        }
+    }
+
+    // Must be called with the cache mutex held.
+    private suspend fun loadCache(): BookmarkNode? {
+        val root = try {
+            storage.getTree(BookmarkRoot.Root.id, true)
+        } catch (e: Exception) {
+            Logger(LOGTAG).error("Error loading the bookmarks tree: ${e.message}")
+            null
+        }
+        setCachedRoot(root)
+        return root
+    }
+
+    private fun setCachedRoot(root: BookmarkNode?) {
+        val index = HashMap<String, String>()
+        root?.let { indexUrls(it, index) }
+        urlIndex = index
+        cachedRoot = root
+    }
+
+    private fun indexUrls(node: BookmarkNode, index: HashMap<String, String>) {
+        node.url?.let { index.putIfAbsent(it, node.guid) }
+        node.children?.forEach { indexUrls(it, index) }
+    }
+
+    /**
+     * Writes a change to Places and applies it to the cached tree. The cache is loaded first and
+     * both run with the cache mutex held, so a load can't read the change and have it applied
+     * again. If the cache can't be loaded only Places is updated.
+     */
+    private suspend fun <T> modify(write: suspend () -> T, update: (BookmarkNode, T) -> BookmarkNode): T {
+        return cacheMutex.withLock {
+            val root = cachedRoot ?: loadCache()
+            val result = write()
+            root?.let { setCachedRoot(update(it, result)) }
+            result
+        }
+    }
+
+    // Reads from Places when the cache couldn't be loaded.
+    private suspend fun getCachedTree(guid: String, recursive: Boolean): BookmarkNode? {
+        val root = getCachedRoot() ?: return storage.getTree(guid, recursive)
+        val node = findNode(root, guid) ?: return null
+        if (recursive) {
+            return node
+        }
+        return node.copy(children = node.children?.map { it.copy(children = null) })
+    }
+
+    private fun findNode(node: BookmarkNode, guid: String): BookmarkNode? {
+        if (node.guid == guid) {
+            return node
+        }
+        node.children?.forEach { child ->
+            findNode(child, guid)?.let { return it }
+        }
+        return null
+    }
+
+    private fun insertNode(node: BookmarkNode, parentGuid: String, child: BookmarkNode): BookmarkNode {
+        val children = node.children ?: return node
+        if (node.guid == parentGuid) {
+            return node.copy(children = children + child.copy(position = children.size))
+        }
+        return node.copy(children = children.map { insertNode(it, parentGuid, child) })
+    }
+
+    private fun removeNode(node: BookmarkNode, guid: String): BookmarkNode {
+        val children = node.children ?: return node
+        val index = children.indexOfFirst { it.guid == guid }
+        if (index >= 0) {
+            return node.copy(children = children.filterIndexed { i, _ -> i != index }
+                    .mapIndexed { i, it -> if (it.position != null) it.copy(position = i) else it })
+        }
+        return node.copy(children = children.map { removeNode(it, guid) })
+    }
+
     private fun notifyListeners() {
         if (listeners.size > 0) {
             val listenersCopy = ArrayList(listeners)
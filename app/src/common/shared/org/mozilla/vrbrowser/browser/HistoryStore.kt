@@ -8,15 +8,22 @@ package org.mozilla.vrbrowser.browser
 import android.content.Context
 import android.os.Handler
 import android.os.Looper
+import android.util.LruCache
 import androidx.lifecycle.ProcessLifecycleOwner
 import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.future.future
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import mozilla.components.concept.storage.*
 import mozilla.components.service.fxa.sync.SyncStatusObserver
 import mozilla.components.support.base.log.logger.Logger
 import org.mozilla.vrbrowser.VRBrowserApplication
+import org.mozilla.vrbrowser.utils.BloomFilter
 import org.mozilla.vrbrowser.utils.SystemUtils
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicBoolean
 
 class HistoryStore constructor(val context: Context) {
 
@@ -25,12 +32,46 @@ class HistoryStore constructor(val context: Context) {
     private var listeners = ArrayList<HistoryListener>()
     private var storage = (context.applicationContext as VRBrowserApplication).places.history
 
+    // Visits and observations are buffered per URL and committed together, so bursts of
+    // redirects and title changes result in a single batch of writes and a single notification.
+    // Visits are kept in a list as reloads and back/forward navigations are separate visits.
+    private class PendingPageWrite {
+        val visits = ArrayList<PageVisit>()
+        var observation: PageObservation? = null
+    }
+
+    private val pendingWrites = LinkedHashMap<String, PendingPageWrite>()
+    private var isFlushScheduled = false
+    private val writeMutex = Mutex()
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val isNotificationPending = AtomicBoolean(false)
+
+    // Answers most getVisited queries without querying Places. The filter holds a superset of the
+    // visited urls so a negative answer is exact, and recently confirmed visits are kept in an LRU.
+    // Only a "maybe" that is not in the LRU goes to the database.
+    private val visitedFilterLock = Any()
+    private var visitedFilter: BloomFilter? = null
+    private var visitedFilterGeneration = 0
+    private var visitedDuringRebuild: ArrayList<String>? = null
+    private val visitedUrls = LruCache<String, Boolean>(VISITED_CACHE_SIZE)
+    @Volatile private var visitedUrlsGeneration = 0
+
+    /**
+     * Incremented whenever visits might have been removed or replaced (deletions, syncs and
+     * storage changes), so caches built from the visits know they can't just append new ones.
+     */
+    @Volatile var removalGeneration = 0
+        private set
+
     // Bookmarks might have changed during sync, so notify our listeners.
     private val syncStatusObserver = object : SyncStatusObserver {
         override fun onStarted() {}
 
         override fun onIdle() {
             Logger(LOGTAG).debug("Detected that sync is finished, notifying listeners")
+            removalGeneration++
+            invalidateVisitedUrls()
+            rebuildVisitedFilter()
             notifyListeners()
         }
 
@@ -41,6 +82,7 @@ class HistoryStore constructor(val context: Context) {
         (context.applicationContext as VRBrowserApplication).services.accountManager.registerForSyncEvents(
                 syncStatusObserver, ProcessLifecycleOwner.get(), false
         )
+        rebuildVisitedFilter()
     }
 
     interface HistoryListener {
@@ -63,15 +105,24 @@ class HistoryStore constructor(val context: Context) {
 
     internal fun updateStorage() {
         storage = (context.applicationContext as VRBrowserApplication).places.history
+        removalGeneration++
+        invalidateVisitedUrls()
+        rebuildVisitedFilter()
         notifyListeners()
     }
 
     fun getHistory(): CompletableFuture<List<String>?> = GlobalScope.future {
+        commitPendingWrites()
         storage.getVisited()
     }
 
-    fun getDetailedHistory(): CompletableFuture<List<VisitInfo>?> = GlobalScope.future {
-        storage.getDetailedVisits(0, excludeTypes = listOf(
+    /**
+     * Returns the visits made from the given time, all of them by default.
+     */
+    @JvmOverloads
+    fun getDetailedHistory(since: Long = 0): CompletableFuture<List<VisitInfo>?> = GlobalScope.future {
+        commitPendingWrites()
+        storage.getDetailedVisits(since, excludeTypes = listOf(
                 VisitType.NOT_A_VISIT,
                 VisitType.DOWNLOAD,
                 VisitType.REDIRECT_TEMPORARY,
@@ -82,6 +133,7 @@ class HistoryStore constructor(val context: Context) {
     }
 
     fun getVisitsPaginated(offset: Long, count: Long): CompletableFuture<List<VisitInfo>?> = GlobalScope.future {
+        commitPendingWrites()
         storage.getVisitsPaginated(offset, count, excludeTypes = listOf(
                 VisitType.NOT_A_VISIT,
                 VisitType.DOWNLOAD,
@@ -92,63 +144,243 @@ class HistoryStore constructor(val context: Context) {
                 VisitType.REDIRECT_PERMANENT))
     }
 
-    fun recordVisit(aURL: String, pageVisit: PageVisit) = GlobalScope.future {
-        storage.recordVisit(aURL, pageVisit)
-        notifyListeners()
+    fun recordVisit(aURL: String, pageVisit: PageVisit) {
+        synchronized(visitedFilterLock) {
+            visitedFilter?.add(aURL)
+            visitedDuringRebuild?.add(aURL)
+        }
+        visitedUrls.put(aURL, true)
+        synchronized(pendingWrites) {
+            pendingWrites.getOrPut(aURL) { PendingPageWrite() }.visits.add(pageVisit)
+            scheduleFlush()
+        }
+    }
+
+    fun recordObservation(aURL: String, observation: PageObservation) {
+        synchronized(pendingWrites) {
+            pendingWrites.getOrPut(aURL) { PendingPageWrite() }.observation = observation
+            scheduleFlush()
+        }
+    }
+
+    /**
+     * Buffers the observations of several pages at once, scheduling a single write for all of them.
+     */
+    fun recordObservations(observations: Map<String, PageObservation>) {
+        if (observations.isEmpty()) {
+            return
+        }
+        synchronized(pendingWrites) {
+            for ((url, observation) in observations) {
+                pendingWrites.getOrPut(url) { PendingPageWrite() }.observation = observation
+            }
+            scheduleFlush()
+        }
+    }
+
+    /**
+     * Commits the buffered visits and observations without waiting for the write-behind window.
+     * Called when the app is paused, since writes still buffered when the process is killed are lost.
+     */
+    fun flush() = GlobalScope.future {
+        commitPendingWrites()
+    }
+
+    private fun scheduleFlush() {
+        if (isFlushScheduled) {
+            return
+        }
+        isFlushScheduled = true
+        GlobalScope.launch {
+            delay(WRITE_BEHIND_DELAY)
+            commitPendingWrites()
+        }
     }
 
-    fun recordObservation(aURL: String, observation: PageObservation) = GlobalScope.future {
-        storage.recordObservation(aURL, observation)
+    private suspend fun commitPendingWrites() {
+        writeMutex.withLock {
+            val batch: List<Map.Entry<String, PendingPageWrite>>
+            synchronized(pendingWrites) {
+                isFlushScheduled = false
+                if (pendingWrites.isEmpty()) {
+                    return
+                }
+                batch = ArrayList(pendingWrites.entries)
+                pendingWrites.clear()
+            }
+
+            for ((url, write) in batch) {
+                try {
+                    for (visit in write.visits) {
+                        storage.recordVisit(url, visit)
+                    }
+                    write.observation?.let { storage.recordObservation(url, it) }
+                } catch (e: Exception) {
+                    Logger(LOGTAG).error("Error recording history for $url: ${e.message}")
+                }
+            }
+            Logger(LOGTAG).debug("Committed history writes for ${batch.size} urls")
+        }
         notifyListeners()
     }
 
     fun deleteHistory(aUrl: String, timestamp: Long) = GlobalScope.future {
+        commitPendingWrites()
         storage.deleteVisit(aUrl, timestamp)
+        removalGeneration++
+        invalidateVisitedUrls()
         notifyListeners()
     }
 
     fun deleteVisitsFor(aUrl: String) = GlobalScope.future {
+        commitPendingWrites()
         storage.deleteVisitsFor(aUrl)
+        removalGeneration++
+        invalidateVisitedUrls()
         notifyListeners()
     }
 
     fun deleteEverything() = GlobalScope.future {
+        commitPendingWrites()
         storage.deleteEverything()
+        removalGeneration++
+        invalidateVisitedUrls()
+        synchronized(visitedFilterLock) {
+            visitedFilterGeneration++
+            visitedDuringRebuild = null
+            visitedFilter = BloomFilter(VISITED_FILTER_MIN_ENTRIES, VISITED_FILTER_FALSE_POSITIVE_RATE)
+        }
         notifyListeners()
     }
 
     fun deleteVisitsSince(since: Long) = GlobalScope.future {
+        commitPendingWrites()
         storage.deleteVisitsSince(since)
+        removalGeneration++
+        invalidateVisitedUrls()
+        rebuildVisitedFilter()
         notifyListeners()
     }
 
     fun deleteVisitsBetween(startTime: Long, endTime: Long) = GlobalScope.future {
+        commitPendingWrites()
         storage.deleteVisitsBetween(startTime, endTime)
+        removalGeneration++
+        invalidateVisitedUrls()
+        rebuildVisitedFilter()
         notifyListeners()
     }
 
-    fun getVisited(uris: List<String>) = GlobalScope.future {
-        storage.getVisited(uris)
+    fun getVisited(uris: List<String>): CompletableFuture<List<Boolean>> {
+        val filter = synchronized(visitedFilterLock) { visitedFilter }
+        if (filter == null) {
+            return GlobalScope.future {
+                commitPendingWrites()
+                storage.getVisited(uris)
+            }
+        }
+
+        val result = ArrayList<Boolean>(uris.size)
+        val unknown = ArrayList<Int>()
+        for ((index, uri) in uris.withIndex()) {
+            when {
+                !filter.mightContain(uri) -> result.add(false)
+                visitedUrls.get(uri) != null -> result.add(true)
+                else -> {
+                    result.add(false)
+                    unknown.add(index)
+                }
+            }
+        }
+        if (unknown.isEmpty()) {
+            return CompletableFuture.completedFuture(result)
+        }
+
+        return GlobalScope.future {
+            commitPendingWrites()
+            val generation = visitedUrlsGeneration
+            val visited = storage.getVisited(unknown.map { uris[it] })
+            for ((i, index) in unknown.withIndex()) {
+                if (visited[i]) {
+                    result[index] = true
+                    if (generation == visitedUrlsGeneration) {
+                        visitedUrls.put(uris[index], true)
+                    }
+                }
+            }
+            result
+        }
     }
 
-    fun isInHistory(aURL: String): CompletableFuture<Boolean> = GlobalScope.future {
-        var result = storage.getVisited(listOf(aURL))
+    fun isInHistory(aURL: String): CompletableFuture<Boolean> = getVisited(listOf(aURL)).thenApply { result ->
         result.isNotEmpty() && result[0]
     }
 
     fun getSuggestions(query: String, limit: Int): CompletableFuture<List<SearchResult>> = GlobalScope.future {
+        commitPendingWrites()
         storage.getSuggestions(query, limit)
     }
 
+    private fun invalidateVisitedUrls() {
+        visitedUrlsGeneration++
+        visitedUrls.evictAll()
+    }
+
+    /**
+     * Loads all the visited urls into a new filter. Queries fall back to Places until it's ready.
+     */
+    private fun rebuildVisitedFilter() {
+        val generation = synchronized(visitedFilterLock) {
+            visitedFilterGeneration++
+            visitedFilter = null
+            visitedDuringRebuild = ArrayList()
+            visitedFilterGeneration
+        }
+
+        GlobalScope.launch {
+            val urls = try {
+                storage.getVisited()
+            } catch (e: Exception) {
+                Logger(LOGTAG).error("Error loading visited urls: ${e.message}")
+                null
+            }
+
+            synchronized(visitedFilterLock) {
+                if (generation != visitedFilterGeneration) {
+                    return@launch
+                }
+                val added = visitedDuringRebuild ?: ArrayList()
+                visitedDuringRebuild = null
+                if (urls == null) {
+                    return@launch
+                }
+                // Leave room for the history to grow before the false positive rate degrades.
+                val filter = BloomFilter(
+                        maxOf((urls.size + added.size) * 2, VISITED_FILTER_MIN_ENTRIES),
+                        VISITED_FILTER_FALSE_POSITIVE_RATE)
+                urls.forEach { filter.add(it) }
+                added.forEach { filter.add(it) }
+                visitedFilter = filter
+            }
+        }
+    }
+
     private fun notifyListeners() {
-        if (listeners.size > 0) {
-            val listenersCopy = ArrayList(listeners)
-            Handler(Looper.getMainLooper()).post {
-                for (listener in listenersCopy) {
+        // Coalesce notifications that arrive before the previous one has been delivered.
+        if (listeners.size > 0 && isNotificationPending.compareAndSet(false, true)) {
+            mainHandler.post {
+                isNotificationPending.set(false)
+                for (listener in ArrayList(listeners)) {
                     listener.onHistoryUpdated()
                 }
             }
         }
     }
-}
 
+    companion object {
+        private const val WRITE_BEHIND_DELAY = 500L
+        private const val VISITED_CACHE_SIZE = 512
+        private const val VISITED_FILTER_MIN_ENTRIES = 10000
+        private const val VISITED_FILTER_FALSE_POSITIVE_RATE = 0.01
+    }
+}
@@ -1,149 +1,339 @@
 package org.mozilla.vrbrowser.browser;
 
-import android.app.Activity;
-import android.text.TextUtils;
-import android.util.ArrayMap;
+import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.mozilla.vrbrowser.utils.SystemUtils;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class UserAgentOverride {
     private final static String LOGTAG = SystemUtils.createLogtag(UserAgentOverride.class);
     private static final String NO_OVERRIDE_FOUND = "NO OVERRIDE USER AGENT FOUND";
-    private ArrayMap<String, String> mOverrideMap;
-    private ArrayMap<String, String> mOverrideCache;
+    private static final int DIGEST_LENGTH = 64; // SHA-512
+    private static final int CACHE_SIZE = 128;
+    private OverrideTable mOverrideTable;
+    private CompletableFuture<OverrideTable> mPendingOverrideTable;
+    private LruCache<HostKey, String> mOverrideCache;
+    private MessageDigest mDigest;
+    private final byte[] mDigestBuffer = new byte[DIGEST_LENGTH];
+    // Reused to look up the host of a URI in the cache without copying it.
+    private final HostKey mLookupKey = new HostKey();
+
     public UserAgentOverride() {
-        mOverrideMap = new ArrayMap<>();
-        mOverrideCache = new ArrayMap<>();
+        mOverrideTable = new OverrideTable(new ArrayList<>());
+        mOverrideCache = new LruCache<>(CACHE_SIZE);
+        try {
+            mDigest = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(LOGTAG, "Error while trying to create domain digest: " + e.getMessage());
+        }
     }
 
-    public void loadOverridesFromAssets(Activity aActivity, String aFileName) {
-        String json = null;
-        try (InputStream is = aActivity.getAssets().open(aFileName)) {
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            is.read(buffer);
-            is.close();
-            json = new String(buffer, "UTF-8");
-            importJSONData(json);
-        } catch (IOException e) {
+    /**
+     * Starts loading the override table on the given executor. Lookups made before the table is
+     * ready wait for it.
+     */
+    public void loadOverridesFromAssets(@NonNull Context aContext, @NonNull String aFileName, @NonNull Executor aExecutor) {
+        final Context context = aContext.getApplicationContext();
+        mPendingOverrideTable = CompletableFuture.supplyAsync(() -> readOverrides(context, aFileName), aExecutor);
+    }
+
+    private static OverrideTable readOverrides(@NonNull Context aContext, @NonNull String aFileName) {
+        ArrayList<OverrideEntry> entries = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(aContext.getAssets().open(aFileName)), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (reader.peek() != JsonToken.STRING) {
+                    Log.e(LOGTAG, "Failed to find UA Override while parsing file for key: " + key);
+                    reader.skipValue();
+                    continue;
+                }
+                String value = reader.nextString();
+                byte[] digest = parseHexDigest(key);
+                if (digest == null) {
+                    Log.e(LOGTAG, "Invalid domain hash in UA Override file: " + key);
+                    continue;
+                }
+                entries.add(new OverrideEntry(digest, value));
+            }
+            reader.endObject();
+
+        } catch (IOException | IllegalStateException e) {
             Log.e(LOGTAG, "Failed reading user agent override file: " + aFileName + " Error: " + e.getMessage());
         }
+
+        return new OverrideTable(entries);
+    }
+
+    private OverrideTable getOverrideTable() {
+        if (mPendingOverrideTable != null) {
+            if (!mPendingOverrideTable.isDone()) {
+                Log.d(LOGTAG, "Waiting for the user agent override table to load");
+            }
+            mOverrideTable = mPendingOverrideTable.join();
+            mPendingOverrideTable = null;
+        }
+        return mOverrideTable;
     }
 
+    /**
+     * Returns the user agent override for the host of the given URI. Lookups for a host that is
+     * already cached don't allocate.
+     */
     public String lookupOverride(final String aUri) {
         if (aUri == null) {
             return null;
         }
-        Log.d(LOGTAG, "lookupOverride for: " + aUri);
-        URI uri;
-        try {
-            uri = new URI(aUri);
-        } catch (URISyntaxException e) {
-            Log.d(LOGTAG, "Error parsing URL: " + aUri + " " + e.getMessage());
+        int hostStart = findHostStart(aUri);
+        if (hostStart < 0) {
             return null;
         }
-        String fullDomain = uri.getHost();
-        if (fullDomain == null) {
+        int hostEnd = findHostEnd(aUri, hostStart);
+        int hostLength = hostEnd - hostStart;
+        if (hostLength <= 0) {
             return null;
         }
 
-        fullDomain = fullDomain.toLowerCase();
+        mLookupKey.set(aUri, hostStart, hostEnd);
+        String override = mOverrideCache.get(mLookupKey);
+        // Don't keep a reference to the URI.
+        mLookupKey.set(null, 0, 0);
+        if (override == null) {
+            String host = toLowerCase(aUri, hostStart, hostEnd);
+            override = findOverride(host);
+            mOverrideCache.put(new HostKey(host), override != null ? override : NO_OVERRIDE_FOUND);
+        }
 
-        String override = mOverrideCache.get(fullDomain);
+        return NO_OVERRIDE_FOUND.equals(override) ? null : override;
+    }
 
-        if (override != null) {
-            Log.d(LOGTAG, "Found override: " + override);
-            return override.equals(NO_OVERRIDE_FOUND) ? null : override;
+    private static String toLowerCase(String aText, int aStart, int aEnd) {
+        char[] result = new char[aEnd - aStart];
+        for (int i = aStart; i < aEnd; i++) {
+            result[i - aStart] = Character.toLowerCase(aText.charAt(i));
         }
+        return new String(result);
+    }
 
-        List<String> domains = Arrays.asList(fullDomain.split("\\."));
-        final int domainCount = domains.size();
-        String[] checkedDomains = new String[domainCount];
-
-        for (int ix = 0; ix < domainCount; ix++) {
-            String domain = TextUtils.join(".", domains.subList(ix, domainCount));
-            checkedDomains[ix] = domain;
-            override = mOverrideCache.get(domain);
-            if (override != null) {
-                Log.d(LOGTAG, "found cached override: " + override);
-                addToCache(checkedDomains, override);
-                return override.equals(NO_OVERRIDE_FOUND) ? null : override;
-            }
-            String domainHash = hashDomain(domain);
-            if (domainHash == null) {
-                Log.d(LOGTAG, "Failed to hash domain: " + domain);
+    // Checks the host and each of its parent domains, from the most specific one.
+    private String findOverride(String aHost) {
+        if (mDigest == null) {
+            return null;
+        }
+        OverrideTable table = getOverrideTable();
+        byte[] host = aHost.getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < host.length) {
+            try {
+                mDigest.reset();
+                mDigest.update(host, start, host.length - start);
+                mDigest.digest(mDigestBuffer, 0, DIGEST_LENGTH);
+            } catch (DigestException e) {
+                Log.e(LOGTAG, "Failed to hash domain: " + e.getMessage());
                 return null;
             }
-            Log.d(LOGTAG, "hash: " + domainHash);
-            override = mOverrideMap.get(domainHash);
+            String override = table.get(mDigestBuffer);
             if (override != null) {
-                Log.d(LOGTAG, "found override from hash: " + override);
-                addToCache(checkedDomains, override);
                 return override;
             }
+
+            while (start < host.length && host[start] != '.') {
+                start++;
+            }
+            start++;
         }
-        addToCache(checkedDomains, NO_OVERRIDE_FOUND);
+
         return null;
     }
 
-    private void addToCache(String[] aDomains, String aOverride) {
-        for (String domain: aDomains) {
-            if (domain == null) {
-                Log.d(LOGTAG, "Found null domain in checked list");
-                continue;
-            } else {
-                Log.d(LOGTAG, domain + " override: " + aOverride);
+    // Returns the index after "scheme://" and the user info, or -1 if the URI has no authority.
+    static int findHostStart(String aUri) {
+        int length = aUri.length();
+        for (int i = 0; i < length; i++) {
+            char c = aUri.charAt(i);
+            if (c == ':') {
+                if (i == 0 || i + 2 >= length || aUri.charAt(i + 1) != '/' || aUri.charAt(i + 2) != '/') {
+                    return -1;
+                }
+                int start = i + 3;
+                // Skip user info
+                int end = findAuthorityEnd(aUri, start);
+                for (int j = end - 1; j >= start; j--) {
+                    if (aUri.charAt(j) == '@') {
+                        return j + 1;
+                    }
+                }
+                return start;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return -1;
             }
-            mOverrideCache.put(domain, aOverride);
         }
+        return -1;
     }
 
-    private String hashDomain(String aDomain) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-512");
-            byte[] digest = md.digest(aDomain.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (int value: digest) {
-                sb.append(Integer.toString((value & 0xff) + 0x100, 16).substring(1));
+    static int findAuthorityEnd(String aUri, int aStart) {
+        int length = aUri.length();
+        for (int i = aStart; i < length; i++) {
+            char c = aUri.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
             }
+        }
+        return length;
+    }
 
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            Log.e(LOGTAG, "Error while trying to hash domain: " + e.getMessage());
+    // Returns the end of the host, before the port if there is one.
+    static int findHostEnd(String aUri, int aHostStart) {
+        int end = findAuthorityEnd(aUri, aHostStart);
+        if (aHostStart < end && aUri.charAt(aHostStart) == '[') {
+            // IPv6 literal
+            int close = aUri.indexOf(']', aHostStart);
+            return close >= 0 && close < end ? close + 1 : end;
         }
-        return null;
+        for (int i = aHostStart; i < end; i++) {
+            if (aUri.charAt(i) == ':') {
+                return i;
+            }
+        }
+        return end;
     }
 
-    private void importJSONData(final String aData) {
-        try {
-            JSONObject json = new JSONObject(aData);
-            Iterator<String> iter = json.keys();
-            while (iter.hasNext()) {
-                String key = iter.next();
-                try {
-                    String value = json.getString(key);
-                    Log.d(LOGTAG, "User agent override: " + key + " -> " + value);
-                    mOverrideMap.put(key, value);
-                } catch (JSONException e) {
-                    Log.e(LOGTAG, "Failed to find UA Override while parsing file for key: " + key);
-                }
+    static byte[] parseHexDigest(String aHex) {
+        if (aHex.length() != DIGEST_LENGTH * 2) {
+            return null;
+        }
+        byte[] result = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            int high = Character.digit(aHex.charAt(i * 2), 16);
+            int low = Character.digit(aHex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
             }
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
+    private static long digestPrefix(byte[] aDigest) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (aDigest[i] & 0xff);
+        }
+        return result;
+    }
+
+    /**
+     * Cache key for a host, compared ignoring case. The lookup key points into the URI being
+     * looked up, so a cache hit doesn't need to copy the host out of it.
+     */
+    private static class HostKey {
+        private String mText;
+        private int mStart;
+        private int mEnd;
+
+        HostKey() {
+        }
+
+        HostKey(@NonNull String aHost) {
+            set(aHost, 0, aHost.length());
+        }
+
+        void set(String aText, int aStart, int aEnd) {
+            mText = aText;
+            mStart = aStart;
+            mEnd = aEnd;
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOGTAG, "Failed to import user agent override JSON data: " + e.getMessage());
+        @Override
+        public boolean equals(Object aOther) {
+            if (!(aOther instanceof HostKey)) {
+                return false;
+            }
+            HostKey other = (HostKey) aOther;
+            int length = mEnd - mStart;
+            return other.mEnd - other.mStart == length &&
+                    mText.regionMatches(true, mStart, other.mText, other.mStart, length);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 0;
+            for (int i = mStart; i < mEnd; i++) {
+                hash = 31 * hash + Character.toLowerCase(mText.charAt(i));
+            }
+            return hash;
+        }
+    }
+
+    private static class OverrideEntry {
+        final byte[] digest;
+        final long prefix;
+        final String override;
+
+        OverrideEntry(byte[] aDigest, String aOverride) {
+            digest = aDigest;
+            prefix = digestPrefix(aDigest);
+            override = aOverride;
+        }
+    }
+
+    /**
+     * Immutable override table sorted by the first 8 bytes of each domain digest, so lookups are a
+     * binary search over primitive longs followed by a full digest comparison.
+     */
+    private static class OverrideTable {
+        private final long[] mPrefixes;
+        private final byte[][] mDigests;
+        private final String[] mOverrides;
+
+        OverrideTable(ArrayList<OverrideEntry> aEntries) {
+            aEntries.sort((a, b) -> Long.compare(a.prefix, b.prefix));
+            int size = aEntries.size();
+            mPrefixes = new long[size];
+            mDigests = new byte[size][];
+            mOverrides = new String[size];
+            for (int i = 0; i < size; i++) {
+                OverrideEntry entry = aEntries.get(i);
+                mPrefixes[i] = entry.prefix;
+                mDigests[i] = entry.digest;
+                mOverrides[i] = entry.override;
+            }
+        }
+
+        String get(byte[] aDigest) {
+            long prefix = digestPrefix(aDigest);
+            int index = Arrays.binarySearch(mPrefixes, prefix);
+            if (index < 0) {
+                return null;
+            }
+            // Walk back to the first entry with the same prefix.
+            while (index > 0 && mPrefixes[index - 1] == prefix) {
+                index--;
+            }
+            for (; index < mPrefixes.length && mPrefixes[index] == prefix; index++) {
+                if (Arrays.equals(mDigests[index], aDigest)) {
+                    return mOverrides[index];
+                }
+            }
+            return null;
         }
     }
 }
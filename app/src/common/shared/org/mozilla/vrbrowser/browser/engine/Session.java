@@ -5,7 +5,6 @@
 
 package org.mozilla.vrbrowser.browser.engine;
 
-import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
@@ -35,7 +34,6 @@ import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.browser.Media;
 import org.mozilla.vrbrowser.browser.SessionChangeListener;
 import org.mozilla.vrbrowser.browser.SettingsStore;
-import org.mozilla.vrbrowser.browser.UserAgentOverride;
 import org.mozilla.vrbrowser.browser.VideoAvailabilityListener;
 import org.mozilla.vrbrowser.geolocation.GeolocationData;
 import org.mozilla.vrbrowser.telemetry.GleanMetricsService;
@@ -47,6 +45,8 @@ import org.mozilla.vrbrowser.utils.UrlUtils;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -63,8 +63,8 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
         GeckoSession.SelectionActionDelegate, SharedPreferences.OnSharedPreferenceChangeListener, SessionChangeListener {
 
     private static final String LOGTAG = SystemUtils.createLogtag(Session.class);
-    private static UserAgentOverride sUserAgentOverride;
     private static final long KEEP_ALIVE_DURATION_MS = 1000; // 1 second.
+    private static final long SLOW_NAVIGATION_LISTENER_NS = 2000000; // 2 ms.
 
     private transient CopyOnWriteArrayList<GeckoSession.NavigationDelegate> mNavigationListeners;
     private transient CopyOnWriteArrayList<GeckoSession.ProgressDelegate> mProgressListeners;
@@ -84,8 +84,11 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
     private transient SharedPreferences mPrefs;
     private transient GeckoRuntime mRuntime;
     private transient byte[] mPrivatePage;
+    private transient String mPrivateBrowsingUri;
     private transient boolean mFirstContentfulPaint;
     private transient long mKeepAlive;
+    // Assigned by SessionStore to keep a stable order between sessions with the same last use.
+    /* package */ long mStoreSequence;
 
     public interface BitmapChangedListener {
         void onBitmapChanged(Session aSession, Bitmap aBitmap);
@@ -130,11 +133,7 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
 
         InternalPages.PageResources pageResources = InternalPages.PageResources.create(R.raw.private_mode, R.raw.private_style);
         mPrivatePage = InternalPages.createAboutPage(mContext, pageResources);
-
-        if (sUserAgentOverride == null) {
-            sUserAgentOverride = new UserAgentOverride();
-            sUserAgentOverride.loadOverridesFromAssets((Activity)mContext, mContext.getString(R.string.user_agent_override_file));
-        }
+        mPrivateBrowsingUri = mContext.getString(R.string.about_private_browsing);
     }
 
     protected void shutdown() {
@@ -377,6 +376,9 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
             mState.mSession.open(mRuntime);
         }
 
+        // Restored tabs defer parsing the Gecko session state until they are first used.
+        mState.resolvePendingSessionState();
+
         // data:text URLs can not be restored.
         if (mState.mSessionState != null && ((mState.mUri == null) || mState.mUri.startsWith("data:text"))) {
             mState.mSessionState = null;
@@ -595,6 +597,18 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
         return mState.mMediaElements != null && mState.mMediaElements.size() > 0;
     }
 
+    public boolean isPlayingMedia() {
+        if (mState.mMediaElements == null) {
+            return false;
+        }
+        for (Media media: mState.mMediaElements) {
+            if (media.isPlaying()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isFirstContentfulPaint() {
         return mFirstContentfulPaint;
     }
@@ -670,6 +684,18 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
         }
     }
 
+    /**
+     * Restores a suspended session in the background so its content is ready when the user switches to it.
+     */
+    /* package */ void prefetch() {
+        if (mState.mSession != null || mState.isActive()) {
+            return;
+        }
+        Log.d(LOGTAG, "Prefetching Session: " + mState.mId);
+        restore();
+        setActive(false);
+    }
+
     public void reload() {
         if (mState.mSession != null) {
             mState.mSession.reload();
@@ -713,10 +739,16 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
 
         SessionSettings settings = new SessionSettings.Builder()
                 .withDefaultSettings(mContext)
+                .withPrivateBrowsing(isPrivateMode())
                 .withServo(!isInstanceOfServoSession(mState.mSession))
                 .build();
 
         mState = createSession(settings, SESSION_OPEN);
+        // Keep the identity of the tab, the SessionStore indexes it by id, last use and private mode.
+        mState.mId = previous.mId;
+        mState.mLastUse = previous.mLastUse;
+        mState.mParentId = previous.mParentId;
+        mState.mRegion = previous.mRegion;
         closeSession(previous);
         mState.setActive(true);
         loadUri(uri);
@@ -835,7 +867,11 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
     }
 
     public void updateLastUse() {
-        mState.mLastUse = System.currentTimeMillis();
+        SessionStore.get().updateLastUse(this, System.currentTimeMillis());
+    }
+
+    /* package */ void setLastUse(long aLastUse) {
+        mState.mLastUse = aLastUse;
     }
 
     public long getLastUse() {
@@ -897,19 +933,18 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
     public @Nullable GeckoResult<AllowOrDeny> onLoadRequest(@NonNull GeckoSession aSession, @NonNull LoadRequest aRequest) {
         String uri = aRequest.uri;
 
-        Log.d(LOGTAG, "onLoadRequest: " + uri);
-
         if (aSession == mState.mSession) {
-            Log.d(LOGTAG, "Testing for UA override");
-
-            final String userAgentOverride = sUserAgentOverride.lookupOverride(uri);
-            aSession.getSettings().setUserAgentOverride(userAgentOverride);
+            final String userAgentOverride = SessionStore.get().getUserAgentOverride().lookupOverride(uri);
+            // Updating the GeckoSession settings sends a message to Gecko, only do it when the override changes.
+            if (!Objects.equals(userAgentOverride, aSession.getSettings().getUserAgentOverride())) {
+                aSession.getSettings().setUserAgentOverride(userAgentOverride);
+            }
             if (mState.mSettings != null) {
                 mState.mSettings.setUserAgentOverride(userAgentOverride);
             }
         }
 
-        if (mContext.getString(R.string.about_private_browsing).equalsIgnoreCase(uri)) {
+        if (mPrivateBrowsingUri.equalsIgnoreCase(uri)) {
             return GeckoResult.DENY;
         }
 
@@ -917,28 +952,21 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
             return GeckoResult.ALLOW;
         }
 
-        final GeckoResult<AllowOrDeny> result = new GeckoResult<>();
-        AtomicInteger count = new AtomicInteger(0);
-        AtomicBoolean allowed = new AtomicBoolean(false);
+        // Listeners returning null allow the load synchronously. Only wait for the ones returning a result.
+        boolean allowed = false;
+        ArrayList<GeckoResult<AllowOrDeny>> pendingResults = null;
         for (GeckoSession.NavigationDelegate listener: mNavigationListeners) {
+            final long start = System.nanoTime();
             GeckoResult<AllowOrDeny> listenerResult = listener.onLoadRequest(aSession, aRequest);
+            logNavigationListenerLatency(listener, start);
             if (listenerResult != null) {
-                listenerResult.then(value -> {
-                    if (AllowOrDeny.ALLOW.equals(value)) {
-                        allowed.set(true);
-                    }
-                    if (count.getAndIncrement() == mNavigationListeners.size() - 1) {
-                        result.complete(allowed.get() ? AllowOrDeny.ALLOW : AllowOrDeny.DENY);
-                    }
-
-                    return null;
-                });
+                if (pendingResults == null) {
+                    pendingResults = new ArrayList<>();
+                }
+                pendingResults.add(listenerResult);
 
             } else {
-                allowed.set(true);
-                if (count.getAndIncrement() == mNavigationListeners.size() - 1) {
-                    result.complete(allowed.get() ? AllowOrDeny.ALLOW : AllowOrDeny.DENY);
-                }
+                allowed = true;
             }
         }
 
@@ -946,9 +974,37 @@ public class Session implements ContentBlocking.Delegate, GeckoSession.Navigatio
             return GeckoResult.DENY;
         }
 
+        if (pendingResults == null) {
+            return allowed ? GeckoResult.ALLOW : GeckoResult.DENY;
+        }
+
+        final GeckoResult<AllowOrDeny> result = new GeckoResult<>();
+        final AtomicInteger remaining = new AtomicInteger(pendingResults.size());
+        final AtomicBoolean anyAllowed = new AtomicBoolean(allowed);
+        for (GeckoResult<AllowOrDeny> pending: pendingResults) {
+            pending.then(value -> {
+                if (AllowOrDeny.ALLOW.equals(value)) {
+                    anyAllowed.set(true);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    result.complete(anyAllowed.get() ? AllowOrDeny.ALLOW : AllowOrDeny.DENY);
+                }
+
+                return null;
+            });
+        }
+
         return result;
     }
 
+    // Only the synchronous part of the call is timed, that's what the UI thread waits for.
+    private void logNavigationListenerLatency(@NonNull GeckoSession.NavigationDelegate aListener, long aStartTime) {
+        long elapsed = System.nanoTime() - aStartTime;
+        if (elapsed > SLOW_NAVIGATION_LISTENER_NS) {
+            Log.w(LOGTAG, "Slow onLoadRequest listener " + aListener.getClass().getSimpleName() + ": " + (elapsed / 1000000) + "ms");
+        }
+    }
+
     @Override
     public GeckoResult<GeckoSession> onNewSession(@NonNull GeckoSession aSession, @NonNull String aUri) {
         mKeepAlive = System.currentTimeMillis() + KEEP_ALIVE_DURATION_MS;
@@ -7,6 +7,10 @@ import androidx.annotation.NonNull;
 import org.mozilla.geckoview.GeckoSessionSettings;
 import org.mozilla.vrbrowser.browser.SettingsStore;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 class SessionSettings {
 
     private boolean isPrivateBrowsingEnabled;
@@ -72,6 +76,28 @@ class SessionSettings {
         isServoEnabled = enabled;
     }
 
+    /* package */ void writeTo(@NonNull DataOutputStream aOut) throws IOException {
+        aOut.writeBoolean(isPrivateBrowsingEnabled);
+        aOut.writeBoolean(isTrackingProtectionEnabled);
+        aOut.writeBoolean(isSuspendMediaWhenInactiveEnabled);
+        aOut.writeInt(userAgentMode);
+        aOut.writeInt(viewportMode);
+        aOut.writeBoolean(isServoEnabled);
+        SessionState.writeString(aOut, userAgentOverride);
+    }
+
+    /* package */ static SessionSettings readFrom(@NonNull DataInputStream aIn) throws IOException {
+        return new SessionSettings.Builder()
+                .withPrivateBrowsing(aIn.readBoolean())
+                .withTrackingProteccion(aIn.readBoolean())
+                .withSuspendMediaWhenInactive(aIn.readBoolean())
+                .withUserAgent(aIn.readInt())
+                .withViewport(aIn.readInt())
+                .withServo(aIn.readBoolean())
+                .withUserAgentOverride(SessionState.readString(aIn))
+                .build();
+    }
+
     public static class Builder {
 
         private boolean isPrivateBrowsingEnabled;
@@ -1,6 +1,11 @@
 package org.mozilla.vrbrowser.browser.engine;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.TypeAdapter;
 import com.google.gson.TypeAdapterFactory;
@@ -14,7 +19,10 @@ import org.mozilla.geckoview.GeckoDisplay;
 import org.mozilla.geckoview.GeckoSession;
 import org.mozilla.vrbrowser.browser.Media;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.UUID;
 
@@ -40,6 +48,24 @@ public class SessionState {
     public String mRegion;
     public String mId = UUID.randomUUID().toString();
     public String mParentId; // Parent session stack Id.
+    // Restored Gecko session state that has not been parsed yet. It's only parsed when the session is restored.
+    private transient String mPendingSessionState;
+    private transient SerializedStateCache mSerializedStateCache = new SerializedStateCache();
+
+    // Caches the serialized Gecko session state so it's only re-serialized when Gecko reports a new one.
+    // Shared between a SessionState and its snapshots.
+    private static class SerializedStateCache {
+        private GeckoSession.SessionState mSource;
+        private String mJson;
+
+        synchronized String get(GeckoSession.SessionState aState) {
+            if (aState != mSource) {
+                mSource = aState;
+                mJson = aState != null ? aState.toString() : null;
+            }
+            return mJson;
+        }
+    }
 
     public SessionState recreate() {
         SessionState result = new SessionState();
@@ -48,6 +74,7 @@ public class SessionState {
         result.mTitle = mTitle;
         result.mSettings = mSettings;
         result.mSessionState = mSessionState;
+        result.mPendingSessionState = mPendingSessionState;
         result.mLastUse = mLastUse;
         result.mRegion = mRegion;
         result.mId = mId;
@@ -56,6 +83,111 @@ public class SessionState {
         return result;
     }
 
+    /**
+     * Returns a shallow copy of the persisted fields that can be serialized off the UI thread.
+     */
+    public SessionState snapshot() {
+        SessionState result = recreate();
+        result.mCanGoBack = mCanGoBack;
+        result.mCanGoForward = mCanGoForward;
+        result.mIsLoading = mIsLoading;
+        result.mIsInputActive = mIsInputActive;
+        result.mSerializedStateCache = mSerializedStateCache;
+
+        return result;
+    }
+
+    String getSerializedSessionState() {
+        if (mSessionState == null && mPendingSessionState != null) {
+            return mPendingSessionState;
+        }
+        return mSerializedStateCache.get(mSessionState);
+    }
+
+    /**
+     * Parses the Gecko session state deferred at restore time, if any.
+     */
+    void resolvePendingSessionState() {
+        if (mPendingSessionState == null) {
+            return;
+        }
+        if (mSessionState == null) {
+            try {
+                mSessionState = GeckoSession.SessionState.fromString(mPendingSessionState);
+            } catch (JSONException e) {
+                mSessionState = null;
+            }
+        }
+        mPendingSessionState = null;
+    }
+
+    /**
+     * Writes the persisted fields using the compact binary format. The Gecko session state is
+     * written last so readers can keep it as a raw string until the session is restored.
+     */
+    public void writeTo(@NonNull DataOutputStream aOut) throws IOException {
+        aOut.writeBoolean(mCanGoBack);
+        aOut.writeBoolean(mCanGoForward);
+        aOut.writeBoolean(mIsLoading);
+        aOut.writeBoolean(mIsInputActive);
+        writeString(aOut, mUri);
+        writeString(aOut, mPreviousUri);
+        writeString(aOut, mTitle);
+        aOut.writeLong(mLastUse);
+        writeString(aOut, mRegion);
+        writeString(aOut, mId);
+        writeString(aOut, mParentId);
+        aOut.writeBoolean(mSettings != null);
+        if (mSettings != null) {
+            mSettings.writeTo(aOut);
+        }
+        boolean persistSessionState = mSettings != null && !mSettings.isPrivateBrowsingEnabled();
+        writeString(aOut, persistSessionState ? getSerializedSessionState() : null);
+    }
+
+    public static SessionState readFrom(@NonNull DataInputStream aIn) throws IOException {
+        SessionState state = new SessionState();
+        state.mCanGoBack = aIn.readBoolean();
+        state.mCanGoForward = aIn.readBoolean();
+        state.mIsLoading = aIn.readBoolean();
+        state.mIsInputActive = aIn.readBoolean();
+        state.mUri = readString(aIn);
+        state.mPreviousUri = readString(aIn);
+        state.mTitle = readString(aIn);
+        state.mLastUse = aIn.readLong();
+        state.mRegion = readString(aIn);
+        state.mId = readString(aIn);
+        state.mParentId = readString(aIn);
+        if (aIn.readBoolean()) {
+            state.mSettings = SessionSettings.readFrom(aIn);
+        }
+        state.mPendingSessionState = readString(aIn);
+
+        return state;
+    }
+
+    // Length prefixed UTF-8 strings. DataOutputStream.writeUTF is limited to 64KB, which is not
+    // enough for long session histories.
+    static void writeString(@NonNull DataOutputStream aOut, @Nullable String aValue) throws IOException {
+        if (aValue == null) {
+            aOut.writeInt(-1);
+            return;
+        }
+        byte[] bytes = aValue.getBytes(StandardCharsets.UTF_8);
+        aOut.writeInt(bytes.length);
+        aOut.write(bytes);
+    }
+
+    static @Nullable String readString(@NonNull DataInputStream aIn) throws IOException {
+        int length = aIn.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        aIn.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     public static class GeckoSessionStateAdapter extends TypeAdapter<GeckoSession.SessionState> {
         @Override
         public void write(JsonWriter out, GeckoSession.SessionState session) throws IOException {
@@ -89,7 +221,6 @@ public class SessionState {
     public class SessionStateAdapterFactory implements TypeAdapterFactory {
         public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
             final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
-            final TypeAdapter<GeckoSession.SessionState> gsDelegate = new GeckoSessionStateAdapter();
 
             return new TypeAdapter<T>() {
                 public void write(JsonWriter out, T value) throws IOException {
@@ -114,8 +245,8 @@ public class SessionState {
                                     out.name("mSessionState").jsonValue(null);
 
                                 } else {
-                                    if (session.mSessionState != null) {
-                                        out.name("mSessionState").jsonValue(gsDelegate.toJson(session.mSessionState));
+                                    if (session.mSessionState != null || session.mPendingSessionState != null) {
+                                        out.name("mSessionState").jsonValue(session.getSerializedSessionState());
 
                                     } else {
                                         out.name("mSessionState").jsonValue(null);
@@ -138,6 +269,21 @@ public class SessionState {
 
                 public T read(JsonReader in) throws IOException {
                     try {
+                        if (SessionState.class.isAssignableFrom(type.getRawType())) {
+                            // Keep the Gecko session state as a raw string so it's only parsed
+                            // when the session is restored into Gecko.
+                            JsonElement element = new JsonParser().parse(in);
+                            if (!element.isJsonObject()) {
+                                return delegate.fromJsonTree(element);
+                            }
+                            JsonObject object = element.getAsJsonObject();
+                            JsonElement geckoState = object.remove("mSessionState");
+                            T result = delegate.fromJsonTree(object);
+                            if (result != null && geckoState != null && !geckoState.isJsonNull()) {
+                                ((SessionState) result).mPendingSessionState = geckoState.toString();
+                            }
+                            return result;
+                        }
                         return delegate.read(in);
                     } catch (Exception e) {
                         in.skipValue();
@@ -1,5 +1,6 @@
 package org.mozilla.vrbrowser.browser.engine;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.os.Bundle;
@@ -11,20 +12,25 @@ import androidx.annotation.Nullable;
 import org.mozilla.gecko.util.ThreadUtils;
 import org.mozilla.geckoview.GeckoRuntime;
 import org.mozilla.geckoview.GeckoSession;
+import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.browser.BookmarksStore;
 import org.mozilla.vrbrowser.browser.HistoryStore;
 import org.mozilla.vrbrowser.browser.PermissionDelegate;
 import org.mozilla.vrbrowser.browser.Services;
+import org.mozilla.vrbrowser.browser.UserAgentOverride;
 import org.mozilla.vrbrowser.utils.SystemUtils;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeSet;
 
 public class SessionStore implements GeckoSession.PermissionDelegate {
     private static final String LOGTAG = SystemUtils.createLogtag(SessionStore.class);
-    private static final int MAX_GECKO_SESSIONS = 5;
+    private static final int DEFAULT_MAX_GECKO_SESSIONS = 5;
 
     private static SessionStore mInstance;
 
@@ -38,15 +44,31 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
     private Context mContext;
     private GeckoRuntime mRuntime;
     private ArrayList<Session> mSessions;
+    private HashMap<String, Session> mSessionsById;
+    // Sessions sorted by last use, most recent first.
+    private TreeSet<Session> mRegularSessionsByLastUse;
+    private TreeSet<Session> mPrivateSessionsByLastUse;
+    private long mNextSequence;
     private Session mActiveSession;
     private PermissionDelegate mPermissionDelegate;
     private BookmarksStore mBookmarksStore;
     private HistoryStore mHistoryStore;
     private Services mServices;
+    private UserAgentOverride mUserAgentOverride;
     private boolean mSuspendPending;
+    private int mMaxGeckoSessions = DEFAULT_MAX_GECKO_SESSIONS;
 
     private SessionStore() {
         mSessions = new ArrayList<>();
+        mSessionsById = new HashMap<>();
+        Comparator<Session> byLastUse = (o1, o2) -> {
+            if (o1.getLastUse() != o2.getLastUse()) {
+                return o2.getLastUse() < o1.getLastUse() ? -1 : 1;
+            }
+            return Long.compare(o1.mStoreSequence, o2.mStoreSequence);
+        };
+        mRegularSessionsByLastUse = new TreeSet<>(byLastUse);
+        mPrivateSessionsByLastUse = new TreeSet<>(byLastUse);
     }
 
     public void setContext(Context context, Bundle aExtras) {
@@ -56,6 +78,16 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
         SessionUtils.vrPrefsWorkAround(context, aExtras);
 
         mRuntime = EngineProvider.INSTANCE.getOrCreateRuntime(context);
+
+        if (mUserAgentOverride == null) {
+            mUserAgentOverride = new UserAgentOverride();
+            mUserAgentOverride.loadOverridesFromAssets(context, context.getString(R.string.user_agent_override_file),
+                    ((VRBrowserApplication)context.getApplicationContext()).getExecutors().diskIO());
+        }
+    }
+
+    public UserAgentOverride getUserAgentOverride() {
+        return mUserAgentOverride;
     }
 
     public void initializeServices() {
@@ -71,11 +103,33 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
     private Session addSession(@NonNull Session aSession) {
         aSession.setPermissionDelegate(this);
         aSession.addNavigationListener(mServices);
+        aSession.mStoreSequence = mNextSequence++;
         mSessions.add(aSession);
+        mSessionsById.put(aSession.getId(), aSession);
+        getSessionsByLastUse(aSession.isPrivateMode()).add(aSession);
         sessionActiveStateChanged();
         return aSession;
     }
 
+    private void removeFromIndex(@NonNull Session aSession) {
+        mSessionsById.remove(aSession.getId());
+        getSessionsByLastUse(aSession.isPrivateMode()).remove(aSession);
+    }
+
+    private TreeSet<Session> getSessionsByLastUse(boolean aPrivateMode) {
+        return aPrivateMode ? mPrivateSessionsByLastUse : mRegularSessionsByLastUse;
+    }
+
+    /* package */ void updateLastUse(@NonNull Session aSession, long aLastUse) {
+        // The sorted set needs to be updated when the sort key changes.
+        TreeSet<Session> sessions = getSessionsByLastUse(aSession.isPrivateMode());
+        boolean indexed = sessions.remove(aSession);
+        aSession.setLastUse(aLastUse);
+        if (indexed) {
+            sessions.add(aSession);
+        }
+    }
+
     @NonNull
     public Session createSession(boolean aPrivateMode) {
         SessionSettings settings = new SessionSettings(new SessionSettings.Builder().withDefaultSettings(mContext).withPrivateBrowsing(aPrivateMode));
@@ -110,6 +164,7 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
     public void destroySession(Session aSession) {
         mSessions.remove(aSession);
         if (aSession != null) {
+            removeFromIndex(aSession);
             shutdownSession(aSession);
         }
     }
@@ -119,6 +174,7 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
             if (!session.isPrivateMode()) {
                 return false;
             }
+            removeFromIndex(session);
             shutdownSession(session);
             return true;
         });
@@ -133,7 +189,7 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
     }
 
     public @Nullable Session getSession(String aId) {
-        return mSessions.stream().filter(session -> session.getId().equals(aId)).findFirst().orElse(null);
+        return mSessionsById.get(aId);
     }
 
     public void setActiveSession(Session aSession) {
@@ -144,12 +200,90 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
     }
 
 
+    /**
+     * Sets the maximum number of sessions backed by a live GeckoSession. When the budget is exceeded
+     * the least recently used inactive sessions are suspended.
+     */
+    public void setMaxGeckoSessions(int aMax) {
+        mMaxGeckoSessions = Math.max(aMax, 1);
+        sessionActiveStateChanged();
+    }
+
+    public int getMaxGeckoSessions() {
+        return mMaxGeckoSessions;
+    }
+
     private void limitInactiveSessions() {
         Log.d(LOGTAG, "Limiting Inactive Sessions");
-        suspendAllInactiveSessions();
+        suspendLeastRecentlyUsedSessions(mMaxGeckoSessions);
         mSuspendPending = false;
     }
 
+    /**
+     * Suspends inactive sessions, least recently used first, until at most aMaxLiveSessions
+     * GeckoSessions are alive. Sessions playing media are never suspended.
+     */
+    private void suspendLeastRecentlyUsedSessions(int aMaxLiveSessions) {
+        int liveCount = 0;
+        ArrayList<Session> candidates = new ArrayList<>();
+        for (Session session: mSessions) {
+            if (session.getGeckoSession() == null) {
+                continue;
+            }
+            liveCount++;
+            if (!session.isActive() && !session.isPlayingMedia()) {
+                candidates.add(session);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Session::getLastUse));
+        for (Session session: candidates) {
+            if (liveCount <= aMaxLiveSessions) {
+                break;
+            }
+            session.suspend();
+            if (session.getGeckoSession() == null) {
+                liveCount--;
+            }
+        }
+    }
+
+    /**
+     * Warms up a suspended session the user is likely to switch to, as long as it fits in the
+     * GeckoSession budget. Never suspends other sessions to make room for it.
+     */
+    public void prefetchSession(@NonNull Session aSession) {
+        if (aSession.getGeckoSession() != null || aSession.isActive() || !mSessionsById.containsKey(aSession.getId())) {
+            return;
+        }
+        int liveCount = 0;
+        for (Session session: mSessions) {
+            if (session.getGeckoSession() != null) {
+                liveCount++;
+            }
+        }
+        if (liveCount >= mMaxGeckoSessions) {
+            return;
+        }
+        aSession.prefetch();
+    }
+
+    public void onTrimMemory(int aLevel) {
+        switch (aLevel) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+                // Keep the most recently used sessions warm.
+                Log.d(LOGTAG, "Memory pressure, suspending least recently used sessions.");
+                suspendLeastRecentlyUsedSessions(Math.max(mMaxGeckoSessions / 2, 1));
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+                Log.d(LOGTAG, "Memory pressure, suspending inactive sessions.");
+                suspendLeastRecentlyUsedSessions(0);
+                break;
+            default:
+                break;
+        }
+    }
+
     void sessionActiveStateChanged() {
         if (mSuspendPending) {
             return;
@@ -170,7 +304,7 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
                 suspendedCount++;
             }
         }
-        if (count > MAX_GECKO_SESSIONS) {
+        if (count > mMaxGeckoSessions) {
             Log.d(LOGTAG, "Too many GeckoSessions. Active: " + activeCount + " Inactive: " + inactiveCount + " Suspended: " + suspendedCount);
             mSuspendPending = true;
             ThreadUtils.postToUiThread(this::limitInactiveSessions);
@@ -182,15 +316,7 @@ public class SessionStore implements GeckoSession.PermissionDelegate {
     }
 
     public ArrayList<Session> getSortedSessions(boolean aPrivateMode) {
-        ArrayList<Session> result = new ArrayList<>(mSessions);
-        result.removeIf(session -> session.isPrivateMode() != aPrivateMode);
-        result.sort((o1, o2) -> {
-            if (o2.getLastUse() < o1.getLastUse()) {
-                return -1;
-            }
-            return o2.getLastUse() == o1.getLastUse() ? 0 : 1;
-        });
-        return result;
+        return new ArrayList<>(getSessionsByLastUse(aPrivateMode));
     }
 
     public void setPermissionDelegate(PermissionDelegate delegate) {
@@ -71,6 +71,7 @@ public class SearchEngineWrapper implements SharedPreferences.OnSharedPreference
     private SearchLocalizationProvider mLocalizationProvider;
     private SearchEngineManager mSearchEngineManager;
     private SearchSuggestionClient mSuggestionsClient;
+    private SuggestionsClient mSuggestionsHttpClient;
     private SharedPreferences mPrefs;
     private Executor mUIThreadExecutor;
 
@@ -78,6 +79,7 @@ public class SearchEngineWrapper implements SharedPreferences.OnSharedPreference
         mContext = aContext;
         mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         mUIThreadExecutor = ((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().mainThread();
+        mSuggestionsHttpClient = new SuggestionsClient(((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().networkIO());
 
         setupSearchEngine(aContext, EMPTY);
     }
@@ -117,8 +119,16 @@ public class SearchEngineWrapper implements SharedPreferences.OnSharedPreference
         CompletableFuture<List<String>> future = new CompletableFuture<>();
         // TODO: Use mSuggestionsClient.getSuggestions when fixed in browser-search.
         String query = getSuggestionURL(aQuery);
+        SearchEngine engine = mSearchEngine;
         mUIThreadExecutor.execute(() ->
-                SuggestionsClient.getSuggestions(mSearchEngine, query).thenAcceptAsync(future::complete));
+                mSuggestionsHttpClient.getSuggestions(engine, aQuery, query).whenComplete((suggestions, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+
+                    } else {
+                        future.complete(suggestions);
+                    }
+                }));
 
         return future;
     }
@@ -0,0 +1,457 @@
+package org.mozilla.vrbrowser.search.suggestions;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.mozilla.vrbrowser.VRBrowserApplication;
+import org.mozilla.vrbrowser.browser.BookmarksStore;
+import org.mozilla.vrbrowser.browser.HistoryStore;
+import org.mozilla.vrbrowser.browser.engine.SessionStore;
+import org.mozilla.vrbrowser.ui.widgets.SuggestionsWidget.SuggestionItem;
+import org.mozilla.vrbrowser.ui.widgets.SuggestionsWidget.SuggestionItem.Type;
+import org.mozilla.vrbrowser.utils.SystemUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import mozilla.appservices.places.BookmarkRoot;
+import mozilla.components.concept.storage.BookmarkNode;
+import mozilla.components.concept.storage.VisitInfo;
+import mozilla.components.concept.storage.VisitType;
+
+/**
+ * In-memory index of the history and bookmarks used to rank the local awesome bar suggestions
+ * without querying Places on every keystroke. The index is rebuilt in the background after the
+ * history or the bookmarks change, and queries use the previous index until the new one is ready.
+ * Only the visits made since the previous build are read, unless visits might have been removed.
+ */
+public class LocalSuggestionsEngine implements HistoryStore.HistoryListener, BookmarksStore.BookmarkListener {
+
+    private static final String LOGTAG = SystemUtils.createLogtag(LocalSuggestionsEngine.class);
+
+    private static final int BOOKMARK_BONUS = 200;
+    private static final int URL_PREFIX_MULTIPLIER = 2;
+    // Visit scores depend on their age, so the whole history is read again once in a while.
+    private static final long FULL_REBUILD_INTERVAL = 60 * 60 * 1000; // ms
+
+    private static LocalSuggestionsEngine mInstance;
+
+    private Executor mBackgroundExecutor;
+    private Executor mUIThreadExecutor;
+    private volatile Index mIndex;
+    private boolean mIsDirty = true;
+    private boolean mIsBuilding;
+    private int mRemovalGeneration;
+    private long mLastFullBuildTime;
+
+    // History entries by url, only used by the builds, which run one at a time.
+    private HashMap<String, Entry> mHistoryEntries = new HashMap<>();
+    private volatile long mLastVisitTime;
+
+    // Matches of the previous query, reused when the new query extends it.
+    private Index mLastIndex;
+    private String mLastQuery;
+    private int[] mLastMatches;
+
+    public static synchronized @NonNull LocalSuggestionsEngine get(final @NonNull Context aContext) {
+        if (mInstance == null) {
+            mInstance = new LocalSuggestionsEngine((VRBrowserApplication)aContext.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    private LocalSuggestionsEngine(@NonNull VRBrowserApplication aApplication) {
+        this(aApplication.getExecutors().diskRead(), aApplication.getExecutors().mainThread());
+
+        SessionStore.get().getHistoryStore().addListener(this);
+        SessionStore.get().getBookmarkStore().addListener(this);
+    }
+
+    /* package */ LocalSuggestionsEngine(@NonNull Executor aBackgroundExecutor, @NonNull Executor aUIThreadExecutor) {
+        mBackgroundExecutor = aBackgroundExecutor;
+        mUIThreadExecutor = aUIThreadExecutor;
+    }
+
+    /**
+     * Returns true once the first index has been built. Starts a rebuild if the history or the
+     * bookmarks changed since the last one. Must be called from the UI thread.
+     */
+    public boolean isReady() {
+        rebuildIfNeeded();
+        return mIndex != null;
+    }
+
+    /**
+     * Returns the best local matches for the query, bookmarks and history ranked together from
+     * the best to the worst one. The query runs in the background against the current index.
+     */
+    public CompletableFuture<List<SuggestionItem>> getSuggestions(@NonNull String aQuery, int aLimit) {
+        return CompletableFuture.supplyAsync(() -> query(aQuery, aLimit), mBackgroundExecutor);
+    }
+
+    private synchronized @NonNull List<SuggestionItem> query(@NonNull String aQuery, int aLimit) {
+        Index index = mIndex;
+        String query = aQuery.toLowerCase(Locale.ROOT).trim();
+        String[] terms = query.split("\\s+");
+        if (index == null || query.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int[] candidates;
+        if (index == mLastIndex && mLastQuery != null && query.startsWith(mLastQuery)) {
+            // Every entry matching an extended query also matched the previous one.
+            candidates = mLastMatches;
+
+        } else {
+            candidates = index.lookup(terms[0]);
+        }
+
+        int[] matches = new int[candidates.length];
+        int matchCount = 0;
+        PriorityQueue<ScoredEntry> top = new PriorityQueue<>(aLimit + 1, (a, b) -> Integer.compare(a.score, b.score));
+        for (int candidate : candidates) {
+            Entry entry = index.entries[candidate];
+            if (!entry.matches(terms)) {
+                continue;
+            }
+            matches[matchCount++] = candidate;
+
+            int score = entry.score;
+            if (entry.matchUrl.startsWith(terms[0])) {
+                score *= URL_PREFIX_MULTIPLIER;
+            }
+            if (entry.isBookmark) {
+                score += BOOKMARK_BONUS;
+            }
+            if (top.size() < aLimit) {
+                top.add(new ScoredEntry(entry, score));
+
+            } else if (top.peek().score < score) {
+                top.poll();
+                top.add(new ScoredEntry(entry, score));
+            }
+        }
+
+        mLastIndex = index;
+        mLastQuery = query;
+        mLastMatches = Arrays.copyOf(matches, matchCount);
+
+        ArrayList<SuggestionItem> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            ScoredEntry scored = top.poll();
+            result.add(SuggestionItem.create(
+                    scored.entry.title,
+                    scored.entry.url,
+                    null,
+                    scored.entry.isBookmark ? Type.BOOKMARK : Type.HISTORY,
+                    scored.score
+            ));
+        }
+        Collections.reverse(result);
+
+        return result;
+    }
+
+    private void rebuildIfNeeded() {
+        if (!mIsDirty || mIsBuilding) {
+            return;
+        }
+        mIsDirty = false;
+        mIsBuilding = true;
+
+        int removalGeneration = getRemovalGeneration();
+        long now = currentTimeMillis();
+        boolean isFullBuild = mLastFullBuildTime == 0 ||
+                mRemovalGeneration != removalGeneration ||
+                now - mLastFullBuildTime > FULL_REBUILD_INTERVAL;
+        if (isFullBuild) {
+            mRemovalGeneration = removalGeneration;
+            mLastFullBuildTime = now;
+        }
+
+        CompletableFuture<List<VisitInfo>> history = getVisits(isFullBuild ? 0 : mLastVisitTime + 1);
+        CompletableFuture<List<BookmarkNode>> bookmarks = getBookmarks();
+        history.thenCombineAsync(bookmarks, (visits, nodes) -> buildIndex(isFullBuild, visits, nodes), mBackgroundExecutor)
+                .whenCompleteAsync((index, throwable) -> {
+                    mIsBuilding = false;
+                    if (throwable != null) {
+                        Log.e(LOGTAG, "Error building the local suggestions index: " + throwable.getLocalizedMessage());
+                        mIsDirty = true;
+                        // The retained history might be incomplete.
+                        mLastFullBuildTime = 0;
+                        return;
+                    }
+                    mIndex = index;
+                    // The history might have changed while the index was being built.
+                    rebuildIfNeeded();
+
+                }, mUIThreadExecutor);
+    }
+
+    /* package */ int getRemovalGeneration() {
+        return SessionStore.get().getHistoryStore().getRemovalGeneration();
+    }
+
+    /* package */ CompletableFuture<List<VisitInfo>> getVisits(long aSince) {
+        return SessionStore.get().getHistoryStore().getDetailedHistory(aSince);
+    }
+
+    // Bookmarks are read from the BookmarksStore in-memory tree, so they are always reloaded.
+    /* package */ CompletableFuture<List<BookmarkNode>> getBookmarks() {
+        return SessionStore.get().getBookmarkStore().getTree(BookmarkRoot.Root.getId(), true);
+    }
+
+    /* package */ long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Index buildIndex(boolean aIsFullBuild, @Nullable List<VisitInfo> aVisits, @Nullable List<BookmarkNode> aBookmarks) {
+        long now = currentTimeMillis();
+        if (aIsFullBuild) {
+            mHistoryEntries = new HashMap<>();
+            mLastVisitTime = 0;
+        }
+        if (aVisits != null) {
+            for (VisitInfo visit : aVisits) {
+                Entry entry = mHistoryEntries.get(visit.getUrl());
+                if (entry == null) {
+                    entry = new Entry(visit.getUrl(), visit.getTitle());
+                    mHistoryEntries.put(visit.getUrl(), entry);
+
+                } else if (entry.title == null || entry.title.isEmpty()) {
+                    entry.title = visit.getTitle();
+                }
+                entry.score += visitScore(visit, now);
+                mLastVisitTime = Math.max(mLastVisitTime, visit.getVisitTime());
+            }
+        }
+
+        // The index entries are copies, as the current index can be queried while this one is built.
+        HashMap<String, Entry> entries = new HashMap<>(mHistoryEntries.size());
+        for (Entry entry : mHistoryEntries.values()) {
+            Entry copy = new Entry(entry.url, entry.title);
+            copy.score = entry.score;
+            entries.put(entry.url, copy);
+        }
+        if (aBookmarks != null) {
+            addBookmarks(aBookmarks, entries);
+        }
+
+        return new Index(new ArrayList<>(entries.values()));
+    }
+
+    private static void addBookmarks(@NonNull List<BookmarkNode> aNodes, @NonNull HashMap<String, Entry> aEntries) {
+        for (BookmarkNode node : aNodes) {
+            String url = node.getUrl();
+            if (url != null && !url.startsWith("place:") && !url.startsWith("about:reader")) {
+                Entry entry = aEntries.get(url);
+                if (entry == null) {
+                    entry = new Entry(url, node.getTitle());
+                    aEntries.put(url, entry);
+                }
+                entry.title = node.getTitle();
+                entry.isBookmark = true;
+            }
+            if (node.getChildren() != null) {
+                addBookmarks(node.getChildren(), aEntries);
+            }
+        }
+    }
+
+    // Frecency: every visit counts, recent ones more, typed ones twice.
+    private static int visitScore(@NonNull VisitInfo aVisit, long aNow) {
+        long age = aNow - aVisit.getVisitTime();
+        int score;
+        if (age < 4 * SystemUtils.ONE_DAY_MILLIS) {
+            score = 100;
+        } else if (age < 14 * SystemUtils.ONE_DAY_MILLIS) {
+            score = 70;
+        } else if (age < 31 * SystemUtils.ONE_DAY_MILLIS) {
+            score = 50;
+        } else if (age < 90 * SystemUtils.ONE_DAY_MILLIS) {
+            score = 30;
+        } else {
+            score = 10;
+        }
+        if (aVisit.getVisitType() == VisitType.TYPED) {
+            score *= 2;
+        }
+        return score;
+    }
+
+    // HistoryStore.HistoryListener
+
+    @Override
+    public void onHistoryUpdated() {
+        mIsDirty = true;
+    }
+
+    // BookmarksStore.BookmarkListener
+
+    @Override
+    public void onBookmarksUpdated() {
+        mIsDirty = true;
+    }
+
+    @Override
+    public void onBookmarkAdded() {
+        mIsDirty = true;
+    }
+
+    private static class Entry {
+        final String url;
+        String title;
+        String matchUrl;
+        String[] tokens;
+        int score;
+        boolean isBookmark;
+
+        Entry(@NonNull String aUrl, @Nullable String aTitle) {
+            url = aUrl;
+            title = aTitle;
+        }
+
+        void prepare() {
+            matchUrl = stripUrl(url.toLowerCase(Locale.ROOT));
+            LinkedHashSet<String> words = new LinkedHashSet<>();
+            addWords(matchUrl, words);
+            if (title != null) {
+                addWords(title.toLowerCase(Locale.ROOT), words);
+            }
+            tokens = words.toArray(new String[0]);
+        }
+
+        boolean matches(@NonNull String[] aTerms) {
+            for (String term : aTerms) {
+                if (!matchUrl.startsWith(term) && !hasTokenWithPrefix(term)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasTokenWithPrefix(@NonNull String aPrefix) {
+            for (String token : tokens) {
+                if (token.startsWith(aPrefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String stripUrl(@NonNull String aUrl) {
+            String result = aUrl;
+            int scheme = result.indexOf("://");
+            if (scheme >= 0) {
+                result = result.substring(scheme + 3);
+            }
+            if (result.startsWith("www.")) {
+                result = result.substring(4);
+            }
+            return result;
+        }
+
+        private static void addWords(@NonNull String aText, @NonNull LinkedHashSet<String> aWords) {
+            int start = -1;
+            for (int i = 0; i <= aText.length(); i++) {
+                boolean isWordChar = i < aText.length() && Character.isLetterOrDigit(aText.charAt(i));
+                if (isWordChar && start < 0) {
+                    start = i;
+
+                } else if (!isWordChar && start >= 0) {
+                    aWords.add(aText.substring(start, i));
+                    start = -1;
+                }
+            }
+        }
+    }
+
+    private static class ScoredEntry {
+        final Entry entry;
+        final int score;
+
+        ScoredEntry(@NonNull Entry aEntry, int aScore) {
+            entry = aEntry;
+            score = aScore;
+        }
+    }
+
+    /**
+     * Sorted token table. Each token points to the entry it was extracted from, so the entries
+     * containing a token starting with a given prefix are a contiguous range.
+     */
+    private static class Index {
+        final Entry[] entries;
+        final String[] tokens;
+        final int[] tokenEntries;
+
+        Index(@NonNull List<Entry> aEntries) {
+            entries = aEntries.toArray(new Entry[0]);
+            ArrayList<String> tokenList = new ArrayList<>();
+            ArrayList<Integer> entryList = new ArrayList<>();
+            for (int i = 0; i < entries.length; i++) {
+                Entry entry = entries[i];
+                entry.prepare();
+                // The stripped url is a token too, so a prefix of the url matches even across dots.
+                tokenList.add(entry.matchUrl);
+                entryList.add(i);
+                for (String token : entry.tokens) {
+                    tokenList.add(token);
+                    entryList.add(i);
+                }
+            }
+
+            Integer[] order = new Integer[tokenList.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> tokenList.get(a).compareTo(tokenList.get(b)));
+
+            tokens = new String[order.length];
+            tokenEntries = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                tokens[i] = tokenList.get(order[i]);
+                tokenEntries[i] = entryList.get(order[i]);
+            }
+        }
+
+        /**
+         * Returns the entries with a token that starts with the given prefix.
+         */
+        int[] lookup(@NonNull String aPrefix) {
+            // Tokens are repeated across entries, so search for the first one that is not smaller.
+            int index = 0;
+            int end = tokens.length;
+            while (index < end) {
+                int middle = (index + end) >>> 1;
+                if (tokens[middle].compareTo(aPrefix) < 0) {
+                    index = middle + 1;
+                } else {
+                    end = middle;
+                }
+            }
+            boolean[] seen = new boolean[entries.length];
+            int[] result = new int[Math.min(entries.length, tokens.length - index)];
+            int count = 0;
+            for (; index < tokens.length && tokens[index].startsWith(aPrefix); index++) {
+                int entry = tokenEntries[index];
+                if (!seen[entry]) {
+                    seen[entry] = true;
+                    result[count++] = entry;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+    }
+}
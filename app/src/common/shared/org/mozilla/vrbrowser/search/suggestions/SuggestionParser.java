@@ -1,22 +1,43 @@
 package org.mozilla.vrbrowser.search.suggestions;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
+
+import org.mozilla.vrbrowser.utils.SystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Function;
 
 import mozilla.components.browser.search.SearchEngine;
 
 public class SuggestionParser {
 
+    private static final String LOGTAG = SystemUtils.createLogtag(SuggestionParser.class);
+
     private static final String AZERDICT = "Azerdict";
     private static final String DAUM = "다음지도";
     private static final String QWANT = "Qwant";
 
-    public static Function<String, List<String>> selectResponseParser(SearchEngine mEngine) {
+    /**
+     * Streaming parser for a suggestions response. Parsing stops as soon as the limit is reached,
+     * without reading the rest of the response.
+     */
+    public interface ResponseParser {
+        @NonNull List<String> parse(@NonNull byte[] aResponse, @NonNull Charset aCharset, int aLimit);
+    }
+
+    private interface ReaderParser {
+        void parse(@NonNull JsonReader aReader, @NonNull List<String> aResult, int aLimit) throws IOException;
+    }
+
+    public static ResponseParser selectResponseParser(SearchEngine mEngine) {
         if (mEngine.getName().equals(AZERDICT)) {
             return azerdictResponseParser;
 
@@ -30,73 +51,99 @@ public class SuggestionParser {
         return defaultResponseParser;
     }
 
-    private static Function<String, List<String>> defaultResponseParser = buildJSONArrayParser(1);
-    private static Function<String, List<String>> azerdictResponseParser = buildJSONObjectParser("suggestions");
-    private static Function<String, List<String>> daumResponseParser = buildJSONObjectParser("items");
-    private static Function<String, List<String>> qwantResponseParser = buildQwantParser();
+    private static ResponseParser defaultResponseParser = buildJSONArrayParser(1);
+    private static ResponseParser azerdictResponseParser = buildJSONObjectParser("suggestions");
+    private static ResponseParser daumResponseParser = buildJSONObjectParser("items");
+    private static ResponseParser qwantResponseParser = buildQwantParser();
 
-    private static Function<String, List<String>> buildJSONArrayParser(int ressultsIndex) {
-        return input -> {
+    private static ResponseParser buildParser(@NonNull ReaderParser aParser) {
+        return (response, charset, limit) -> {
             List<String> list = new ArrayList<>();
-            try {
-                JSONArray root = new JSONArray(input);
-                JSONArray array = root.getJSONArray(ressultsIndex);
-                if (array != null) {
-                    int len = array.length();
-                    for (int i=0; i<len; i++){
-                        list.add(array.get(i).toString());
-                    }
-                }
+            try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response), charset))) {
+                reader.setLenient(true);
+                aParser.parse(reader, list, limit);
 
-            } catch (JSONException e) {
-                e.printStackTrace();
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                Log.e(LOGTAG, "Error parsing suggestions: " + e.getMessage());
             }
 
             return list;
         };
     }
 
-    private static Function<String, List<String>> buildJSONObjectParser(String resultsKey) {
-        return input -> {
-            List<String> list = new ArrayList<>();
-            try {
-                JSONObject root = new JSONObject(input);
-                JSONArray array = root.getJSONArray(resultsKey);
-                if (array != null) {
-                    int len = array.length();
-                    for (int i=0; i<len; i++){
-                        list.add(array.get(i).toString());
-                    }
-                }
+    private static ResponseParser buildJSONArrayParser(int ressultsIndex) {
+        return buildParser((reader, list, limit) -> {
+            reader.beginArray();
+            for (int i = 0; i < ressultsIndex && reader.hasNext(); i++) {
+                reader.skipValue();
+            }
+            if (reader.hasNext()) {
+                readItems(reader, list, limit);
+            }
+        });
+    }
 
-            } catch (JSONException e) {
-                e.printStackTrace();
+    private static ResponseParser buildJSONObjectParser(String resultsKey) {
+        return buildParser((reader, list, limit) -> {
+            if (moveToKey(reader, resultsKey)) {
+                readItems(reader, list, limit);
             }
+        });
+    }
 
-            return list;
-        };
+    private static ResponseParser buildQwantParser() {
+        return buildParser((reader, list, limit) -> {
+            if (moveToKey(reader, "data") && moveToKey(reader, "items")) {
+                readItems(reader, list, limit);
+            }
+        });
     }
 
-    private static Function<String, List<String>> buildQwantParser() {
-        return input -> {
-            List<String> list = new ArrayList<>();
-            try {
-                JSONObject root = new JSONObject(input);
-                JSONObject data = root.getJSONObject("data");
-                JSONArray items = data.getJSONArray("items");
-                if (items != null) {
-                    int len = items.length();
-                    for (int i=0; i<len; i++){
-                        list.add(items.get(i).toString());
-                    }
-                }
+    // Enters the object at the reader position and skips values until the given key.
+    private static boolean moveToKey(@NonNull JsonReader aReader, @NonNull String aKey) throws IOException {
+        aReader.beginObject();
+        while (aReader.hasNext()) {
+            if (aReader.nextName().equals(aKey)) {
+                return true;
+            }
+            aReader.skipValue();
+        }
+        return false;
+    }
 
-            } catch (JSONException e) {
-                e.printStackTrace();
+    private static void readItems(@NonNull JsonReader aReader, @NonNull List<String> aResult, int aLimit) throws IOException {
+        aReader.beginArray();
+        while (aReader.hasNext() && aResult.size() < aLimit) {
+            String item = readItem(aReader);
+            if (item != null) {
+                aResult.add(item);
             }
+        }
+    }
 
-            return list;
-        };
+    // Items are plain strings, or objects holding the suggestion in their "value" field.
+    private static String readItem(@NonNull JsonReader aReader) throws IOException {
+        JsonToken token = aReader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return aReader.nextString();
+
+        } else if (token == JsonToken.BEGIN_OBJECT) {
+            String value = null;
+            aReader.beginObject();
+            while (aReader.hasNext()) {
+                if (aReader.nextName().equals("value") && aReader.peek() == JsonToken.STRING) {
+                    value = aReader.nextString();
+
+                } else {
+                    aReader.skipValue();
+                }
+            }
+            aReader.endObject();
+            return value;
+        }
+
+        aReader.skipValue();
+        return null;
     }
 
 }
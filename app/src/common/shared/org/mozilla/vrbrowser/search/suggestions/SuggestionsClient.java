@@ -1,33 +1,188 @@
 package org.mozilla.vrbrowser.search.suggestions;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.loopj.android.http.AsyncHttpClient;
-import com.loopj.android.http.TextHttpResponseHandler;
+import com.loopj.android.http.AsyncHttpResponseHandler;
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
 
+import org.mozilla.vrbrowser.utils.SystemUtils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import cz.msebera.android.httpclient.Header;
 import mozilla.components.browser.search.SearchEngine;
 
+/**
+ * Fetches the search engine suggestions for the text being typed. Requests are debounced, a new
+ * query only cancels the previous pending one, and recent results are cached so they can be
+ * reused for the same query.
+ * Must be used from the UI thread.
+ */
 public class SuggestionsClient {
 
-    private static AsyncHttpClient client = new AsyncHttpClient();
+    private static final String LOGTAG = SystemUtils.createLogtag(SuggestionsClient.class);
+
+    private static final long DEBOUNCE_DELAY = 150;
+    private static final int CACHE_SIZE = 32;
+    private static final int SUGGESTIONS_LIMIT = 10;
+
+    private AsyncHttpClient mClient;
+    private Handler mHandler;
+    private Executor mParserExecutor;
+    private LruCache<String, List<String>> mCache;
+    private Request mPendingRequest;
+
+    public SuggestionsClient(@NonNull Executor aParserExecutor) {
+        mClient = new AsyncHttpClient();
+        mHandler = new Handler(Looper.getMainLooper());
+        mParserExecutor = aParserExecutor;
+        mCache = new LruCache<>(CACHE_SIZE);
+    }
+
+    /**
+     * Returns the suggestions for the query. The returned future is cancelled if a new query is
+     * requested before it completes.
+     * @param aEngine Engine used to select the response parser.
+     * @param aQuery Text typed by the user.
+     * @param aUrl Suggestions URL for the query.
+     */
+    public CompletableFuture<List<String>> getSuggestions(@NonNull SearchEngine aEngine, @NonNull String aQuery, @NonNull String aUrl) {
+        cancelPendingRequest();
+
+        String key = getCacheKey(aEngine, aQuery);
+        List<String> cached = mCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        Request request = new Request(aEngine, key, aUrl);
+        mPendingRequest = request;
+        mHandler.postDelayed(request, DEBOUNCE_DELAY);
+
+        return request.mFuture;
+    }
+
+    /**
+     * Cancels the request in flight, if any.
+     */
+    public void cancelPendingRequest() {
+        if (mPendingRequest != null) {
+            mPendingRequest.cancel();
+            mPendingRequest = null;
+        }
+    }
+
+    private static String getCacheKey(@NonNull SearchEngine aEngine, @NonNull String aQuery) {
+        return aEngine.getIdentifier() + "\n" + aQuery;
+    }
+
+    /* package */ RequestHandle sendRequest(@NonNull String aUrl, @NonNull ResponseHandlerInterface aHandler) {
+        return mClient.get(aUrl, null, aHandler);
+    }
+
+    // The suggestions responses are JSON, which defaults to UTF-8 if the server doesn't say otherwise.
+    static @NonNull Charset getCharset(@Nullable Header[] aHeaders) {
+        if (aHeaders != null) {
+            for (Header header : aHeaders) {
+                if (!"Content-Type".equalsIgnoreCase(header.getName()) || header.getValue() == null) {
+                    continue;
+                }
+                for (String param : header.getValue().split(";")) {
+                    param = param.trim();
+                    if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                        try {
+                            return Charset.forName(param.substring(8).replace("\"", "").trim());
 
-    public static CompletableFuture<List<String>> getSuggestions(SearchEngine mEngine, String aQuery) {
-        final CompletableFuture<List<String>> future = new CompletableFuture<>();
-        client.cancelAllRequests(true);
-        client.get(aQuery, null, new TextHttpResponseHandler("ISO-8859-1") {
-            @Override
-            public void onFailure(int statusCode, Header[] headers, String responseString, Throwable throwable) {
-                future.completeExceptionally(throwable);
+                        } catch (IllegalArgumentException e) {
+                            Log.e(LOGTAG, "Unsupported suggestions charset: " + param);
+                        }
+                    }
+                }
             }
+        }
+
+        return StandardCharsets.UTF_8;
+    }
+
+    private class Request implements Runnable {
+        private final SearchEngine mEngine;
+        private final String mKey;
+        private final String mUrl;
+        private final CompletableFuture<List<String>> mFuture = new CompletableFuture<>();
+        private RequestHandle mHandle;
+        private boolean mIsCancelled;
+
+        Request(@NonNull SearchEngine aEngine, @NonNull String aKey, @NonNull String aUrl) {
+            mEngine = aEngine;
+            mKey = aKey;
+            mUrl = aUrl;
+        }
 
-            @Override
-            public void onSuccess(int statusCode, Header[] headers, String responseString) {
-                future.complete(SuggestionParser.selectResponseParser(mEngine).apply(responseString));
+        @Override
+        public void run() {
+            mHandle = sendRequest(mUrl, new AsyncHttpResponseHandler() {
+                @Override
+                public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+                    if (mIsCancelled) {
+                        return;
+                    }
+                    Charset charset = SuggestionsClient.getCharset(headers);
+                    byte[] response = responseBody != null ? responseBody : new byte[0];
+                    CompletableFuture.supplyAsync(() ->
+                            SuggestionParser.selectResponseParser(mEngine).parse(response, charset, SUGGESTIONS_LIMIT),
+                            mParserExecutor).whenCompleteAsync((suggestions, throwable) -> {
+                        if (throwable != null) {
+                            finish(null, throwable);
+
+                        } else {
+                            mCache.put(mKey, suggestions);
+                            finish(suggestions, null);
+                        }
+
+                    }, mHandler::post);
+                }
+
+                @Override
+                public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+                    if (!mIsCancelled) {
+                        finish(null, error);
+                    }
+                }
+            });
+        }
+
+        void cancel() {
+            mIsCancelled = true;
+            mHandler.removeCallbacks(this);
+            if (mHandle != null) {
+                mHandle.cancel(true);
             }
-        });
+            mFuture.completeExceptionally(new CancellationException("Suggestions request superseded"));
+        }
 
-        return future;
+        private void finish(@Nullable List<String> aSuggestions, @Nullable Throwable aError) {
+            if (mPendingRequest == this) {
+                mPendingRequest = null;
+            }
+            if (aError != null) {
+                mFuture.completeExceptionally(aError);
+
+            } else {
+                mFuture.complete(aSuggestions);
+            }
+        }
     }
 }
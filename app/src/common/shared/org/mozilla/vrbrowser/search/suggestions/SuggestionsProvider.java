@@ -15,12 +15,15 @@ import org.mozilla.vrbrowser.utils.UrlUtils;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 
 public class SuggestionsProvider {
 
     private static final String LOGTAG = SuggestionsProvider.class.getSimpleName();
+    private static final int LOCAL_SUGGESTIONS_LIMIT = 20;
 
     public class DefaultSuggestionsComparator implements Comparator {
 
@@ -46,6 +49,7 @@ public class SuggestionsProvider {
     }
 
     private SearchEngineWrapper mSearchEngineWrapper;
+    private LocalSuggestionsEngine mLocalSuggestionsEngine;
     private String mText;
     private String mFilterText;
     private Comparator mComparator;
@@ -53,6 +57,7 @@ public class SuggestionsProvider {
 
     public SuggestionsProvider(Context context) {
         mSearchEngineWrapper = SearchEngineWrapper.get(context);
+        mLocalSuggestionsEngine = LocalSuggestionsEngine.get(context);
         mFilterText = "";
         mComparator = new DefaultSuggestionsComparator();
         mUIThreadExecutor = ((VRBrowserApplication)context.getApplicationContext()).getExecutors().mainThread();
@@ -171,8 +176,12 @@ public class SuggestionsProvider {
             future.complete(items);
 
         }, mUIThreadExecutor).exceptionally(throwable -> {
-            Log.d(LOGTAG, "Error getting search engine suggestions: " + throwable.getLocalizedMessage());
-            throwable.printStackTrace();
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            // Requests superseded by a newer query are cancelled on every keystroke.
+            if (!(cause instanceof CancellationException)) {
+                Log.d(LOGTAG, "Error getting search engine suggestions: " + throwable.getLocalizedMessage());
+                throwable.printStackTrace();
+            }
             future.complete(items);
             return null;
         });
@@ -180,11 +189,35 @@ public class SuggestionsProvider {
         return future;
     }
 
+    /**
+     * Returns the search engine suggestions merged with the bookmarks and history matches. Once the
+     * local index is ready both are requested in parallel and the local matches keep the index
+     * ranking, otherwise Places is queried and the results sorted using the comparator.
+     */
     public CompletableFuture<List<SuggestionItem>> getSuggestions() {
-        return CompletableFuture.supplyAsync(() -> new ArrayList<SuggestionItem>())
-                .thenComposeAsync(this::getSearchEngineSuggestions)
-                .thenComposeAsync(this::getBookmarkSuggestions)
-                .thenComposeAsync(this::getHistorySuggestions);
+        if (!mLocalSuggestionsEngine.isReady()) {
+            return CompletableFuture.supplyAsync(() -> new ArrayList<SuggestionItem>())
+                    .thenComposeAsync(this::getSearchEngineSuggestions)
+                    .thenComposeAsync(this::getBookmarkSuggestions)
+                    .thenComposeAsync(this::getHistorySuggestions);
+        }
+
+        CompletableFuture<List<SuggestionItem>> local = mLocalSuggestionsEngine.getSuggestions(mFilterText, LOCAL_SUGGESTIONS_LIMIT)
+                .exceptionally(throwable -> {
+                    Log.d(LOGTAG, "Error getting local suggestions: " + throwable.getLocalizedMessage());
+                    return new ArrayList<>();
+                });
+
+        return getSearchEngineSuggestions(new ArrayList<>()).thenCombineAsync(local, (items, localItems) -> {
+            // Local matches go after the completion and before the search engine suggestions.
+            int index = 0;
+            while (index < items.size() && items.get(index).type == Type.COMPLETION) {
+                index++;
+            }
+            items.addAll(index, localItems);
+            return items;
+
+        }, mUIThreadExecutor);
     }
 
 }
@@ -11,10 +11,14 @@ import android.widget.ImageView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.databinding.DataBindingUtil;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.databinding.BookmarkItemBinding;
 import org.mozilla.vrbrowser.databinding.BookmarkItemFolderBinding;
 import org.mozilla.vrbrowser.databinding.BookmarkSeparatorBinding;
@@ -24,7 +28,9 @@ import org.mozilla.vrbrowser.ui.widgets.WidgetPlacement;
 import org.mozilla.vrbrowser.utils.AnimationHelper;
 import org.mozilla.vrbrowser.utils.SystemUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 
@@ -39,7 +45,11 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
     private static final int ICON_ANIMATION_DURATION = 200;
 
     private List<BookmarkNode> mBookmarksList;
+    // Latest display list. The list that is currently shown is the one held by mDiffer, which
+    // catches up once the diff is calculated.
     private List<Bookmark> mDisplayList;
+    private final AsyncListDiffer<Bookmark> mDiffer;
+    private final HashMap<String, Long> mStableIds = new HashMap<>();
 
     private int mMinPadding;
     private int mMaxPadding;
@@ -56,9 +66,30 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
         mIsNarrowLayout = false;
 
-        setHasStableIds(false);
+        mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().listDiff())
+                        .build());
+
+        setHasStableIds(true);
     }
 
+    private static final DiffUtil.ItemCallback<Bookmark> DIFF_CALLBACK = new DiffUtil.ItemCallback<Bookmark>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Bookmark oldItem, @NonNull Bookmark newItem) {
+            return oldItem.getGuid().equals(newItem.getGuid());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Bookmark oldItem, @NonNull Bookmark newItem) {
+            return oldItem.getGuid().equals(newItem.getGuid())
+                    && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getUrl(), newItem.getUrl())
+                    && oldItem.getLevel() == newItem.getLevel()
+                    && oldItem.isExpanded() == newItem.isExpanded();
+        }
+    };
+
     public void setNarrow(boolean isNarrow) {
         if (mIsNarrowLayout != isNarrow) {
             mIsNarrowLayout = isNarrow;
@@ -72,61 +103,30 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
         List<Bookmark> newDisplayList;
         if (mDisplayList == null || mDisplayList.isEmpty()) {
             newDisplayList = Bookmark.getDisplayListTree(mBookmarksList, Collections.singletonList(BookmarkRoot.Mobile.getId()));
-            mDisplayList = newDisplayList;
-            for (Bookmark node : mDisplayList) {
+            for (Bookmark node : newDisplayList) {
                 if (node.isExpanded()) {
                     if (mBookmarkItemCallback != null) {
                         mBookmarkItemCallback.onFolderOpened(node);
                     }
                 }
             }
-            notifyItemRangeInserted(0, mDisplayList.size());
 
         } else {
             List<String> openFoldersGuid = Bookmark.getOpenFoldersGuid(mDisplayList);
             newDisplayList = Bookmark.getDisplayListTree(mBookmarksList, openFoldersGuid);
-            notifyDiff(newDisplayList);
         }
+        submitDisplayList(newDisplayList);
     }
 
-    private void notifyDiff(List<Bookmark> newDisplayList) {
-        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return mDisplayList.size();
-            }
-
-            @Override
-            public int getNewListSize() {
-                return newDisplayList.size();
-            }
-
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return mDisplayList.get(oldItemPosition).getGuid().equals(newDisplayList.get(newItemPosition).getGuid()) &&
-                        mDisplayList.get(oldItemPosition).isExpanded() == newDisplayList.get(newItemPosition).isExpanded();
-            }
-
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                Bookmark newBookmark = newDisplayList.get(newItemPosition);
-                Bookmark oldBookmark = mDisplayList.get(oldItemPosition);
-                return newBookmark.getGuid().equals(oldBookmark.getGuid())
-                        && Objects.equals(newBookmark.getTitle(), oldBookmark.getTitle())
-                        && Objects.equals(newBookmark.getUrl(), oldBookmark.getUrl())
-                        && newBookmark.isExpanded() == oldBookmark.isExpanded();
-            }
-        });
-
+    private void submitDisplayList(@NonNull List<Bookmark> newDisplayList) {
         mDisplayList = newDisplayList;
-        result.dispatchUpdatesTo(this);
+        mDiffer.submitList(newDisplayList);
     }
 
     public void removeItem(Bookmark aBookmark) {
-        int position = mDisplayList.indexOf(aBookmark);
-        if (position >= 0) {
-            mDisplayList.remove(position);
-            notifyItemRemoved(position);
+        List<Bookmark> newDisplayList = new ArrayList<>(mDisplayList);
+        if (newDisplayList.remove(aBookmark)) {
+            submitDisplayList(newDisplayList);
         }
     }
 
@@ -135,15 +135,16 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
     }
 
     public int getItemPosition(String id) {
-        for (int position=0; position<mDisplayList.size(); position++)
-            if (mDisplayList.get(position).getGuid().equalsIgnoreCase(id))
+        List<Bookmark> displayList = mDiffer.getCurrentList();
+        for (int position=0; position<displayList.size(); position++)
+            if (displayList.get(position).getGuid().equalsIgnoreCase(id))
                 return position;
         return 0;
     }
 
     @Override
     public int getItemViewType(int position) {
-        switch (mDisplayList.get(position).getType()) {
+        switch (mDiffer.getCurrentList().get(position).getType()) {
             case FOLDER:
                 return BookmarkNodeType.FOLDER.ordinal();
             case ITEM:
@@ -268,7 +269,7 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Bookmark item = mDisplayList.get(position);
+        Bookmark item = mDiffer.getCurrentList().get(position);
 
         if (holder instanceof BookmarkViewHolder) {
             BookmarkViewHolder bookmarkHolder = (BookmarkViewHolder) holder;
@@ -288,13 +289,19 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
     @Override
     public int getItemCount() {
-        return mDisplayList == null ? 0 : mDisplayList.size();
+        return mDiffer.getCurrentList().size();
     }
 
     @Override
     public long getItemId(int position) {
-        Bookmark bookmark = mDisplayList.get(position);
-        return  bookmark.getPosition();
+        // Bookmark positions are only unique among siblings, so ids are assigned per guid.
+        String guid = mDiffer.getCurrentList().get(position).getGuid();
+        Long id = mStableIds.get(guid);
+        if (id == null) {
+            id = (long) mStableIds.size();
+            mStableIds.put(guid, id);
+        }
+        return id;
     }
 
     static class BookmarkViewHolder extends RecyclerView.ViewHolder {
@@ -369,7 +376,7 @@ public class BookmarkAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
             }
 
             List<Bookmark> newDisplayList = Bookmark.getDisplayListTree(mBookmarksList, openFoldersGuid);
-            notifyDiff(newDisplayList);
+            submitDisplayList(newDisplayList);
 
             if (mBookmarkItemCallback != null) {
                 mBookmarkItemCallback.onFolderOpened(item);
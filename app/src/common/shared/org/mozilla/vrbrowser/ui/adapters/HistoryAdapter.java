@@ -11,10 +11,14 @@ import android.widget.ImageView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.databinding.DataBindingUtil;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.databinding.HistoryItemBinding;
 import org.mozilla.vrbrowser.databinding.HistoryItemHeaderBinding;
 import org.mozilla.vrbrowser.ui.callbacks.HistoryItemCallback;
@@ -37,7 +41,7 @@ public class HistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
     private static final int ICON_ANIMATION_DURATION = 200;
 
-    private List<? extends VisitInfo> mHistoryList;
+    private final AsyncListDiffer<VisitInfo> mDiffer;
 
     private int mMinPadding;
     private int mMaxPadding;
@@ -54,9 +58,28 @@ public class HistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
         mIsNarrowLayout = false;
 
+        mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().listDiff())
+                        .build());
+
         setHasStableIds(true);
     }
 
+    private static final DiffUtil.ItemCallback<VisitInfo> DIFF_CALLBACK = new DiffUtil.ItemCallback<VisitInfo>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull VisitInfo oldItem, @NonNull VisitInfo newItem) {
+            return oldItem.getVisitTime() == newItem.getVisitTime();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull VisitInfo oldItem, @NonNull VisitInfo newItem) {
+            return oldItem.getVisitTime() == newItem.getVisitTime()
+                    && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getUrl(), newItem.getUrl());
+        }
+    };
+
     public void setNarrow(boolean isNarrow) {
         if (mIsNarrowLayout != isNarrow) {
             mIsNarrowLayout = isNarrow;
@@ -64,65 +87,27 @@ public class HistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
     }
 
-    public void setHistoryList(final List<? extends VisitInfo> historyList) {
-        if (mHistoryList == null) {
-            mHistoryList = historyList;
-            notifyItemRangeInserted(0, historyList.size());
-
-        } else {
-            DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-                @Override
-                public int getOldListSize() {
-                    return mHistoryList.size();
-                }
-
-                @Override
-                public int getNewListSize() {
-                    return historyList.size();
-                }
-
-                @Override
-                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                    return mHistoryList.get(oldItemPosition).getVisitTime() == historyList.get(newItemPosition).getVisitTime();
-                }
-
-                @Override
-                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                    VisitInfo newHistoryItem = historyList.get(newItemPosition);
-                    VisitInfo oldHistoryItem = mHistoryList.get(oldItemPosition);
-                    return newHistoryItem.getVisitTime() == oldHistoryItem.getVisitTime()
-                            && Objects.equals(newHistoryItem.getTitle(), oldHistoryItem.getTitle())
-                            && Objects.equals(newHistoryItem.getUrl(), oldHistoryItem.getUrl());
-                }
-            });
-
-            mHistoryList = historyList;
-            result.dispatchUpdatesTo(this);
-        }
-    }
-
-    public void removeItem(VisitInfo historyItem) {
-        int position = mHistoryList.indexOf(historyItem);
-        if (position >= 0) {
-            mHistoryList.remove(position);
-            notifyItemRemoved(position);
-        }
+    /**
+     * Sets the history list. The diff against the current list is calculated in the background.
+     * @param historyList New history list, it must not be modified afterwards.
+     * @param aCommitCallback Called once the new list is displayed.
+     */
+    public void setHistoryList(@NonNull final List<VisitInfo> historyList, @Nullable Runnable aCommitCallback) {
+        mDiffer.submitList(historyList, aCommitCallback);
     }
 
     public int itemCount() {
-        if (mHistoryList != null) {
-            return mHistoryList.stream().allMatch(item ->
-                    item.getVisitType() == VisitType.NOT_A_VISIT) ?
-                    0 :
-                    mHistoryList.size();
-        }
-
-        return 0;
+        List<VisitInfo> historyList = mDiffer.getCurrentList();
+        return historyList.stream().allMatch(item ->
+                item.getVisitType() == VisitType.NOT_A_VISIT) ?
+                0 :
+                historyList.size();
     }
 
     public int getItemPosition(long id) {
-        for (int position=0; position<mHistoryList.size(); position++)
-            if (mHistoryList.get(position).getVisitTime() == id)
+        List<VisitInfo> historyList = mDiffer.getCurrentList();
+        for (int position=0; position<historyList.size(); position++)
+            if (historyList.get(position).getVisitTime() == id)
                 return position;
         return 0;
     }
@@ -233,23 +218,23 @@ public class HistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         if (holder instanceof HistoryItemViewHolder) {
             HistoryItemViewHolder item = (HistoryItemViewHolder) holder;
-            item.binding.setItem(mHistoryList.get(position));
+            item.binding.setItem(mDiffer.getCurrentList().get(position));
             item.binding.setIsNarrow(mIsNarrowLayout);
 
         } else if (holder instanceof HistoryItemViewHeaderHolder) {
             HistoryItemViewHeaderHolder item = (HistoryItemViewHeaderHolder) holder;
-            item.binding.setTitle(mHistoryList.get(position).getTitle());
+            item.binding.setTitle(mDiffer.getCurrentList().get(position).getTitle());
         }
     }
 
     @Override
     public int getItemCount() {
-        return mHistoryList == null ? 0 : mHistoryList.size();
+        return mDiffer.getCurrentList().size();
     }
 
     @Override
     public long getItemId(int position) {
-        VisitInfo historyItem = mHistoryList.get(position);
+        VisitInfo historyItem = mDiffer.getCurrentList().get(position);
         return  historyItem.getVisitTime();
     }
 
@@ -262,7 +247,7 @@ public class HistoryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     }
 
     private boolean isPositionHeader(int position) {
-        return mHistoryList.get(position).getVisitType() == VisitType.NOT_A_VISIT;
+        return mDiffer.getCurrentList().get(position).getVisitType() == VisitType.NOT_A_VISIT;
     }
 
     private View.OnHoverListener mIconHoverListener = (view, motionEvent) -> {
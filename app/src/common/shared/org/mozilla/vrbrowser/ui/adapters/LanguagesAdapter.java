@@ -13,22 +13,32 @@ import android.widget.ImageView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.databinding.DataBindingUtil;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import org.mozilla.gecko.util.ThreadUtils;
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.databinding.LanguageItemBinding;
 import org.mozilla.vrbrowser.ui.callbacks.LanguageItemCallback;
 import org.mozilla.vrbrowser.utils.ViewUtils;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.LanguageViewHolder> {
 
     private static final int ICON_ANIMATION_DURATION = 200;
 
-    private List<Language> mLanguagesList;
+    // Latest languages list. The list that is currently shown is the one held by mDiffer, which
+    // catches up once the diff is calculated.
+    private List<Language> mLanguagesList = new ArrayList<>();
+    private final AsyncListDiffer<Language> mDiffer;
+    private final HashMap<String, Long> mStableIds = new HashMap<>();
     private boolean mIsPreferred;
 
     private int mIconColorHover;
@@ -49,25 +59,65 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
         mIconColorHover = context.getResources().getColor(R.color.smoke, context.getTheme());
         mIconNormalColor = context.getResources().getColor(R.color.concrete, context.getTheme());
 
+        mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(((VRBrowserApplication)context.getApplicationContext()).getExecutors().listDiff())
+                        .build());
+
         setHasStableIds(true);
     }
 
+    // Language items are shared with LocaleUtils and updated in place, so preferred state changes
+    // are notified explicitly instead of being detected by the diff.
+    private static final DiffUtil.ItemCallback<Language> DIFF_CALLBACK = new DiffUtil.ItemCallback<Language>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Language oldItem, @NonNull Language newItem) {
+            return oldItem.getId().equals(newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Language oldItem, @NonNull Language newItem) {
+            return oldItem == newItem;
+        }
+    };
+
     public void setLanguageList(final List<Language> languagesList) {
-        // Ideally we would use the DiffTools here as we do in the Bookmarks adapter but as we are
-        // using elements from the shared local languages list from LocaleUtils and get get the
-        // preferred and available Language items from the global list, the diff is always void.
-        // We save some memory though.
+        // The shared items might have been updated in place, so rebind all the rows.
+        submitLanguages(new ArrayList<>(languagesList), () -> notifyItemRangeChanged(0, getItemCount()));
+    }
+
+    private void submitLanguages(@NonNull List<Language> languagesList) {
+        submitLanguages(languagesList, null);
+    }
+
+    private void submitLanguages(@NonNull List<Language> languagesList, @Nullable Runnable aCommitCallback) {
+        List<Language> currentList = mDiffer.getCurrentList();
+        Language oldFirst = currentList.isEmpty() ? null : currentList.get(0);
+        Language oldLast = currentList.isEmpty() ? null : currentList.get(currentList.size() - 1);
+
         mLanguagesList = languagesList;
-        notifyItemRangeInserted(0, languagesList.size());
-        notifyDataSetChanged();
+        mDiffer.submitList(languagesList, () -> {
+            // The first and last rows hide the move buttons, so rebind the rows that gained or
+            // lost those positions.
+            List<Language> list = mDiffer.getCurrentList();
+            if (!list.isEmpty()) {
+                for (Language language : new Language[] { oldFirst, oldLast, list.get(0), list.get(list.size() - 1) }) {
+                    int position = list.indexOf(language);
+                    if (position >= 0) {
+                        notifyItemChanged(position);
+                    }
+                }
+            }
+            if (aCommitCallback != null) {
+                aCommitCallback.run();
+            }
+        });
     }
 
     public void addItem(Language language) {
-        mLanguagesList.add(0, language);
-        notifyItemInserted(mLanguagesList.indexOf(language));
-        // This shouldn't be necessary but for some reason the last list item is not refreshed
-        // if we don't do a full refresh. Might be another RecyclerView bug.
-        ThreadUtils.postToUiThread(() -> notifyDataSetChanged());
+        List<Language> languagesList = new ArrayList<>(mLanguagesList);
+        languagesList.add(0, language);
+        submitLanguages(languagesList);
     }
 
     public void addItemAlphabetical(Language language) {
@@ -78,33 +128,35 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
             index = (index * -1) - 1;
         }
 
-        mLanguagesList.add(index, language);
-        notifyItemInserted(index);
+        List<Language> languagesList = new ArrayList<>(mLanguagesList);
+        languagesList.add(index, language);
+        submitLanguages(languagesList);
     }
 
     public void removeItem(Language language) {
-        int position = mLanguagesList.indexOf(language);
-        if (position >= 0) {
-            mLanguagesList.remove(position);
-            notifyItemRemoved(position);
+        List<Language> languagesList = new ArrayList<>(mLanguagesList);
+        if (languagesList.remove(language)) {
+            submitLanguages(languagesList);
         }
     }
 
     public void moveItemUp(View view, Language language) {
         int position = mLanguagesList.indexOf(language);
         if (position > 0) {
-            Collections.swap(mLanguagesList, position, position - 1);
+            List<Language> languagesList = new ArrayList<>(mLanguagesList);
+            Collections.swap(languagesList, position, position - 1);
             view.startAnimation(AnimationUtils.loadAnimation(view.getContext(), R.anim.button_click_scale));
-            notifyItemRangeChanged(position - 1, 2);
+            submitLanguages(languagesList);
         }
     }
 
     public void moveItemDown(View view, Language language) {
         int position = mLanguagesList.indexOf(language);
-        if (position < mLanguagesList.size()-1) {
-            Collections.swap(mLanguagesList, position, position + 1);
+        if (position >= 0 && position < mLanguagesList.size()-1) {
+            List<Language> languagesList = new ArrayList<>(mLanguagesList);
+            Collections.swap(languagesList, position, position + 1);
             view.startAnimation(AnimationUtils.loadAnimation(view.getContext(), R.anim.button_click_scale));
-            notifyItemRangeChanged(position, 2);
+            submitLanguages(languagesList);
         }
     }
 
@@ -114,9 +166,8 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
 
         } else {
             language.setPreferred(true);
+            notifyLanguageChanged(language);
         }
-
-        notifyDataSetChanged();
     }
 
     public void onRemove(Language language) {
@@ -125,9 +176,15 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
 
         } else {
             language.setPreferred(false);
+            notifyLanguageChanged(language);
         }
+    }
 
-        notifyDataSetChanged();
+    private void notifyLanguageChanged(Language language) {
+        int position = mDiffer.getCurrentList().indexOf(language);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
     }
 
     public List<Language> getItems() {
@@ -151,10 +208,11 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public void onBindViewHolder(@NonNull LanguageViewHolder holder, int position) {
-        Language language = mLanguagesList.get(position);
+        List<Language> languagesList = mDiffer.getCurrentList();
+        Language language = languagesList.get(position);
         holder.binding.setLanguage(language);
         holder.binding.setIsFirst(position == 0);
-        holder.binding.setIsLast(position == mLanguagesList.size()-1);
+        holder.binding.setIsLast(position == languagesList.size()-1);
         // We can't use duplicateParentState to change the state drawables of child views if they
         // handling click events as when they get focus they stop propagating their own state changes
         // so we use duplicateParentState but we handle the events here for add/remove/moveup/movedown.
@@ -189,7 +247,7 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
 
     @Override
     public int getItemCount() {
-        return mLanguagesList == null ? 0 : mLanguagesList.size();
+        return mDiffer.getCurrentList().size();
     }
 
     static class LanguageViewHolder extends RecyclerView.ViewHolder {
@@ -204,7 +262,13 @@ public class LanguagesAdapter extends RecyclerView.Adapter<LanguagesAdapter.Lang
 
     @Override
     public long getItemId(int position) {
-        return  position;
+        String languageId = mDiffer.getCurrentList().get(position).getId();
+        Long id = mStableIds.get(languageId);
+        if (id == null) {
+            id = (long) mStableIds.size();
+            mStableIds.put(languageId, id);
+        }
+        return id;
     }
 
     private View.OnHoverListener mIconHoverListener = (view, motionEvent) -> {
@@ -10,10 +10,14 @@ import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
 import androidx.databinding.DataBindingUtil;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.databinding.PopupItemBinding;
 import org.mozilla.vrbrowser.db.PopUpSite;
 import org.mozilla.vrbrowser.ui.callbacks.PopUpSiteItemCallback;
@@ -29,7 +33,7 @@ public class PopUpAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
     private static final int ICON_ANIMATION_DURATION = 200;
 
-    private List<PopUpSite> mDisplayList;
+    private final AsyncListDiffer<PopUpSite> mDiffer;
 
     private PopUpSiteItemCallback mCallback;
 
@@ -47,44 +51,28 @@ public class PopUpAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         mIconColorHover = aContext.getResources().getColor(R.color.smoke, aContext.getTheme());
         mIconNormalColor = aContext.getResources().getColor(R.color.concrete, aContext.getTheme());
 
+        mDiffer = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                        .setBackgroundThreadExecutor(((VRBrowserApplication)aContext.getApplicationContext()).getExecutors().listDiff())
+                        .build());
+
         setHasStableIds(true);
     }
 
-    public void setSites(@NonNull List<PopUpSite> sites) {
-        if (mDisplayList == null) {
-            mDisplayList = sites;
-            notifyItemRangeChanged(0, sites.size());
-
-        } else {
-            notifyDiff(sites);
+    private static final DiffUtil.ItemCallback<PopUpSite> DIFF_CALLBACK = new DiffUtil.ItemCallback<PopUpSite>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull PopUpSite oldItem, @NonNull PopUpSite newItem) {
+            return oldItem.url.equals(newItem.url);
         }
-    }
-
-    private void notifyDiff(List<PopUpSite> newDisplayList) {
-        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return mDisplayList.size();
-            }
-
-            @Override
-            public int getNewListSize() {
-                return newDisplayList.size();
-            }
-
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return mDisplayList.get(oldItemPosition).url.equals(newDisplayList.get(newItemPosition).url);
-            }
 
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                return Objects.equals(newDisplayList.get(newItemPosition).url, mDisplayList.get(oldItemPosition).url);
-            }
-        });
+        @Override
+        public boolean areContentsTheSame(@NonNull PopUpSite oldItem, @NonNull PopUpSite newItem) {
+            return Objects.equals(oldItem.url, newItem.url) && oldItem.allowed == newItem.allowed;
+        }
+    };
 
-        mDisplayList = newDisplayList;
-        result.dispatchUpdatesTo(this);
+    public void setSites(@NonNull List<PopUpSite> sites) {
+        mDiffer.submitList(sites);
     }
 
     @Override
@@ -117,13 +105,18 @@ public class PopUpAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         PopUpSiteViewHolder siteHolder = (PopUpSiteViewHolder) holder;
-        PopUpSite site = mDisplayList.get(position);
+        PopUpSite site = mDiffer.getCurrentList().get(position);
         siteHolder.binding.setItem(site);
     }
 
     @Override
     public int getItemCount() {
-        return mDisplayList == null ? 0 : mDisplayList.size();
+        return mDiffer.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mDiffer.getCurrentList().get(position).id;
     }
 
     static class PopUpSiteViewHolder extends RecyclerView.ViewHolder {
@@ -4,20 +4,22 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
 import org.mozilla.vrbrowser.utils.StringUtils;
 import org.mozilla.vrbrowser.utils.SystemUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
@@ -25,9 +27,16 @@ import androidx.annotation.Nullable;
 
 public class ChinesePinyinKeyboard extends BaseKeyboard {
     private static final String LOGTAG = SystemUtils.createLogtag(ChinesePinyinKeyboard.class);
+    private static final int KEYMAP_FIELDS = 3;
+    private static final int FIELD_CODE = 0;
+    private static final int FIELD_DISPLAYS = 1;
+    private static final int FIELD_CANDIDATES = 2;
+    private static final int MAX_LOADED_KEYMAPS = 512;
     private CustomKeyboard mKeyboard;
-    private DBHelper mDB;
-    private HashMap<String, KeyMap> mKeymaps = new HashMap<>();
+    private KeymapTable mKeymaps = new KeymapTable.Builder(KEYMAP_FIELDS).build();
+    private CompletableFuture<KeymapTable> mPendingKeymaps;
+    private LruCache<Integer, KeyMap> mLoadedKeymaps = new LruCache<>(MAX_LOADED_KEYMAPS);
+    private PinyinLattice mLattice = new PinyinLattice(this::getLatticeWord);
     private HashMap<String, KeyMap> mExtraKeymaps = new HashMap<>();
     private List<Character> mAutocompleteEndings = Arrays.asList(
             ' ', '，', '。','!','?','ー'
@@ -42,6 +51,7 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
     public CustomKeyboard getAlphabeticKeyboard() {
         if (mKeyboard == null) {
             mKeyboard = new CustomKeyboard(mContext.getApplicationContext(), R.xml.keyboard_qwerty_pinyin);
+            addExtraKeyMaps();
             loadDatabase();
         }
         return mKeyboard;
@@ -63,51 +73,26 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
             return null;
         }
 
-        ArrayList<String> displayList = getDisplayCode(aComposingText);
-        int syllables = 0;
-
-        StringBuilder code = new StringBuilder();
-        if (displayList != null) {
-            syllables = displayList.size();
-            for (String display: displayList) {
-                if (code.length() != 0) {
-                    code.append(' ');
-                }
-                code.append(display);
-            }
-        }
-
         ArrayList<Words> words = new ArrayList<>();
-        StringBuilder candidate = new StringBuilder();
-        String tempKey = aComposingText;
-        String remainKey = "";
 
         // First candidate
-        while (tempKey.length() > 0) {
-            List<Words> displays = getDisplays(tempKey);
-            if (displays != null && displays.size() > 0){
-                candidate.append(displays.get(0).value);
-                tempKey = remainKey;
-                remainKey = "";
-            } else {
-                remainKey = tempKey.charAt(tempKey.length() - 1) + remainKey;
-                tempKey = tempKey.substring(0, tempKey.length() - 1);
-            }
-        }
-        words.add(new Words(syllables, code.toString(), candidate.toString()));
-
-        // Extra candidates
-        tempKey = aComposingText;
-        while (tempKey.length() > 0) {
-            List<Words> displays = getDisplays(tempKey);
-            if (displays != null) {
-                words.addAll(displays);
+        mLattice.update(getKeymaps(), aComposingText);
+        words.add(mLattice.getBestCandidate());
+
+        // Extra candidates, from the longest prefix of the composing text to the shortest one.
+        int[] prefixKeys = getKeymaps().getPrefixKeys(aComposingText, 0);
+        int nonLatinLength = getNonLatinPrefixLength(aComposingText);
+        for (int length = aComposingText.length(); length > 0; length--) {
+            if (length <= nonLatinLength) {
+                String key = aComposingText.substring(0, length);
+                words.add(new Words(1, key, key));
+                continue;
             }
-            KeyMap map = mKeymaps.get(tempKey);
-            if (map != null && map.candidates.size() > 0) {
+            KeyMap map = length <= prefixKeys.length ? getKeyMap(prefixKeys[length - 1]) : null;
+            if (map != null) {
+                words.addAll(map.displays);
                 words.addAll(map.candidates);
             }
-            tempKey = tempKey.substring(0, tempKey.length() - 1);
         }
         cleanCandidates(words);
 
@@ -123,23 +108,6 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
         return result;
     }
 
-    private ArrayList<String> getDisplayCode(String aKey) {
-        ArrayList<String> result = new ArrayList<>();
-        String remain = "";
-        while (aKey.length() > 0) {
-            List<Words> displays = getDisplays(aKey);
-            if (displays != null && displays.size() > 0) {
-                result.add(displays.get(0).code);
-                aKey = remain;
-                remain = "";
-            } else {
-                remain = aKey.charAt(aKey.length() - 1) + remain;
-                aKey = aKey.substring(0, aKey.length() - 1);
-            }
-        }
-        return result.size() > 0 ? result : null;
-    }
-
     private void cleanCandidates(ArrayList<Words> aCandidates) {
         // Remove potential repeated value between first candidate and first extra
         if (aCandidates.size() > 1 && aCandidates.get(0).value.equals((aCandidates.get(1).value))) {
@@ -212,25 +180,93 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
         }
     }
 
-    private List<Words> getDisplays(String aKey) {
-        if (aKey.matches("^[^a-z]+$")) {
-            // Allow completion of uppercase letters, numbers and symbols
-            return Collections.singletonList(new Words(1, aKey, aKey));
+    // Word used for a key of the keymaps table in the lattice, or null if there is none.
+    private Words getLatticeWord(int aKey) {
+        KeyMap map = getKeyMap(aKey);
+        if (map == null) {
+            return null;
         }
-        loadKeymapIfNotLoaded(aKey);
-        KeyMap map = mKeymaps.get(aKey);
-        return map != null ? map.displays : null;
+        return map.displays.size() > 0 ? map.displays.get(0) : null;
     }
 
+    // Length of the prefix made only of uppercase letters, numbers and symbols.
+    private static int getNonLatinPrefixLength(String aKey) {
+        int length = 0;
+        while (length < aKey.length() && (aKey.charAt(length) < 'a' || aKey.charAt(length) > 'z')) {
+            length++;
+        }
+        return length;
+    }
 
+    /**
+     * Starts reading the keymaps into memory in the background, so typing doesn't query the
+     * database. Lookups made before the keymaps are ready wait for them.
+     */
     private void loadDatabase() {
-        try {
-            mDB = new DBHelper(mContext);
-            addExtraKeyMaps();
+        final Context context = mContext.getApplicationContext();
+        mPendingKeymaps = CompletableFuture.supplyAsync(() -> readKeymaps(context),
+                ((VRBrowserApplication)context).getExecutors().diskRead());
+    }
+
+    private KeymapTable getKeymaps() {
+        if (mPendingKeymaps != null) {
+            mKeymaps = mPendingKeymaps.join();
+            mPendingKeymaps = null;
+        }
+        return mKeymaps;
+    }
+
+    /**
+     * Returns the words of a key of the keymaps table, or null if the index is -1. The rows of
+     * the recently typed keys are kept split into words.
+     */
+    private KeyMap getKeyMap(int aKey) {
+        if (aKey < 0) {
+            return null;
+        }
+        KeyMap map = mLoadedKeymaps.get(aKey);
+        if (map != null) {
+            return map;
+        }
+
+        KeymapTable keymaps = getKeymaps();
+        map = new KeyMap(keymaps.getKey(aKey));
+        for (int row = keymaps.getFirstRow(aKey); row < keymaps.getFirstRow(aKey + 1); row++) {
+            String code = keymaps.getField(row, FIELD_CODE);
+            map.addWords(code != null ? code : map.key,
+                    keymaps.getField(row, FIELD_DISPLAYS),
+                    keymaps.getField(row, FIELD_CANDIDATES));
+        }
+        KeyMap extra = mExtraKeymaps.get(map.key);
+        if (extra != null) {
+            map.displays.addAll(extra.displays);
+            map.candidates.addAll(extra.candidates);
         }
-        catch (Exception ex) {
+        mLoadedKeymaps.put(aKey, map);
+        return map;
+    }
+
+    private KeymapTable readKeymaps(Context aContext) {
+        KeymapTable.Builder keymaps = new KeymapTable.Builder(KEYMAP_FIELDS);
+        try (DBHelper helper = new DBHelper(aContext)) {
+            SQLiteDatabase reader = helper.getReadableDatabase();
+            try (Cursor cursor = reader.rawQuery("SELECT keymap, display, candidates FROM keymaps ORDER BY _id ASC", null)) {
+                while (cursor.moveToNext()) {
+                    String key = getString(cursor, 0);
+                    addToKeyMap(keymaps, key, key, getString(cursor, 1), getString(cursor, 2));
+                }
+            }
+            try (Cursor cursor = reader.rawQuery("SELECT inputcode, displaycode, display FROM autocorrect ORDER BY _id ASC", null)) {
+                while (cursor.moveToNext()) {
+                    addToKeyMap(keymaps, getString(cursor, 0), getString(cursor, 1), getString(cursor, 2), null);
+                }
+            }
+
+        } catch (Exception ex) {
             Log.e(LOGTAG, "Error reading pinyin database: " + ex.getMessage());
         }
+
+        return keymaps.build();
     }
 
     private void addExtraKeyMaps() {
@@ -262,62 +298,7 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
         addExtraKeyMap("z", "z", "z|Z");
     }
 
-    private void loadKeymapIfNotLoaded(String aKey) {
-        if (mKeymaps.containsKey(aKey)) {
-            return;
-        }
-        loadKeymapTable(aKey);
-        loadAutoCorrectTable(aKey);
-        KeyMap extra = mExtraKeymaps.get(aKey);
-        if (extra != null) {
-            KeyMap map = mKeymaps.get(aKey);
-            if (map != null) {
-                map.displays.addAll(extra.displays);
-                map.candidates.addAll(extra.candidates);
-            }
-        }
-    }
-
-    private final String[] sqliteArgs = new String[1];
-
-    private void loadKeymapTable(String aKey) {
-        SQLiteDatabase reader = mDB.getReadableDatabase();
-        sqliteArgs[0] = aKey;
-        try (Cursor cursor = reader.rawQuery("SELECT keymap, display, candidates FROM keymaps where keymap = ? ORDER BY _id ASC", sqliteArgs)) {
-            if (!cursor.moveToFirst()) {
-                return;
-            }
-            do {
-                String key = getString(cursor, 0);
-                String displays = getString(cursor, 1);
-                String candidates = getString(cursor, 2);
-                addToKeyMap(key, key, displays, candidates);
-            } while (cursor.moveToNext());
-        }
-    }
-
-    private void loadAutoCorrectTable(String aKey) {
-        SQLiteDatabase reader = mDB.getReadableDatabase();
-        sqliteArgs[0] = aKey;
-        try  (Cursor cursor = reader.rawQuery("SELECT inputcode, displaycode, display FROM autocorrect where inputcode = ? ORDER BY _id ASC", sqliteArgs)) {
-            if (!cursor.moveToFirst()) {
-                return;
-            }
-            do {
-                String key = getString(cursor, 0);
-                String code = getString(cursor, 1);
-                String displays = getString(cursor, 2);
-                addToKeyMap(key, code, displays);
-            } while (cursor.moveToNext());
-        }
-    }
-
-
-    private void addToKeyMap(String aKey, String aCode, String aDisplays) {
-        addToKeyMap(aKey, aCode, aDisplays, null);
-    }
-
-    private void addToKeyMap(String aKey, String aCode, String aDisplays, String aCandidates) {
+    private void addToKeyMap(KeymapTable.Builder aKeymaps, String aKey, String aCode, String aDisplays, String aCandidates) {
         if (aKey == null || aKey.isEmpty()) {
             Log.e(LOGTAG, "Pinyin key is null");
             return;
@@ -326,27 +307,8 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
             Log.e(LOGTAG, "Pinyin code is null");
             return;
         }
-        KeyMap keyMap = mKeymaps.get(aKey);
-        if (keyMap == null) {
-            keyMap = new KeyMap();
-            mKeymaps.put(aKey, keyMap);
-        }
-
-        if (aDisplays != null && !aDisplays.isEmpty()) {
-            String[] displayList = aDisplays.split("\\|");
-            for (String display: displayList) {
-                keyMap.displays.add(new Words(syllableCount(aCode), aCode, display));
-            }
-        }
-
-
-        if (aCandidates != null && !aCandidates.isEmpty()) {
-            String[] candidateList = aCandidates.split("\\|");
-            for (String candidate: candidateList) {
-                keyMap.candidates.add(new Words(syllableCount(aCode), aCode, candidate));
-            }
-        }
-
+        // Most codes are the key itself, so those are not stored twice.
+        aKeymaps.add(aKey, 0, aCode.equals(aKey) ? null : aCode, aDisplays, aCandidates);
     }
 
     private void addExtraKeyMap(String aKey, String aCode, String aDisplays) {
@@ -354,21 +316,8 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
     }
 
     private void addExtraKeyMap(String aKey, String aCode, String aDisplays, String aCandidates) {
-        KeyMap extra = new KeyMap();
-        if (aDisplays != null && !aDisplays.isEmpty()) {
-            String[] displayList = aDisplays.split("\\|");
-            for (String display: displayList) {
-                extra.displays.add(new Words(syllableCount(aCode), aCode, display));
-            }
-        }
-
-
-        if (aCandidates != null && !aCandidates.isEmpty()) {
-            String[] candidateList = aCandidates.split("\\|");
-            for (String candidate: candidateList) {
-                extra.candidates.add(new Words(syllableCount(aCode), aCode, candidate));
-            }
-        }
+        KeyMap extra = new KeyMap(aKey);
+        extra.addWords(aCode, aDisplays, aCandidates);
         mExtraKeymaps.put(aKey, extra);
     }
 
@@ -393,8 +342,29 @@ public class ChinesePinyinKeyboard extends BaseKeyboard {
 
 
     class KeyMap {
+        final String key;
         ArrayList<Words> displays = new ArrayList<>();
         ArrayList<Words> candidates = new ArrayList<>();
+
+        KeyMap(String aKey) {
+            key = aKey;
+        }
+
+        void addWords(String aCode, String aDisplays, String aCandidates) {
+            if (aDisplays != null && !aDisplays.isEmpty()) {
+                String[] displayList = aDisplays.split("\\|");
+                for (String display: displayList) {
+                    displays.add(new Words(syllableCount(aCode), aCode, display));
+                }
+            }
+
+            if (aCandidates != null && !aCandidates.isEmpty()) {
+                String[] candidateList = aCandidates.split("\\|");
+                for (String candidate: candidateList) {
+                    candidates.add(new Words(syllableCount(aCode), aCode, candidate));
+                }
+            }
+        }
     }
 
 
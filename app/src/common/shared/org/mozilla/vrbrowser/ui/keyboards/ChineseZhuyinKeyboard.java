@@ -9,16 +9,20 @@ import android.inputmethodservice.Keyboard.Key;
 import com.readystatesoftware.sqliteasset.SQLiteAssetHelper;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
 import org.mozilla.vrbrowser.utils.StringUtils;
 import org.mozilla.vrbrowser.utils.SystemUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Pattern;
 
 import androidx.annotation.NonNull;
@@ -27,13 +31,13 @@ import androidx.annotation.Nullable;
 public class ChineseZhuyinKeyboard extends BaseKeyboard {
     private static final String LOGTAG = SystemUtils.createLogtag(ChineseZhuyinKeyboard.class);
     private static final String nonZhuyinReg = "[^ㄅ-ㄩ˙ˊˇˋˉ]";
+    private static final int MAX_CANDIDATES = 50;
+    private static final String FIRST_TONE_CODE = "44";
     private CustomKeyboard mKeyboard;
-    private DBWordHelper mWordDB;
-    private DBPhraseHelper mPhraseDB;
-    private HashMap<String, KeyMap> mKeymaps = new HashMap<>();
+    private Dictionary mDictionary = new Dictionary();
+    private CompletableFuture<Dictionary> mPendingDictionary;
+    private boolean mHasLookups;
     private HashMap<String, Words> mKeyCodes = new HashMap<>();
-    private final String[] sqliteArgs = new String[2];
-    private final String[] roughSqliteArgs = new String[3];
 
 
     public ChineseZhuyinKeyboard(Context aContext) {
@@ -183,27 +187,73 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
         // Allow completion of uppercase/lowercase letters numbers, and symbols
         // aKey.length() > 1 only happens when switching from other keyboard.
         if (aKey.matches(nonZhuyinReg) ||
-            (aKey.length() > 1 && mKeymaps.size() == 0)) {
+            (aKey.length() > 1 && !mHasLookups)) {
             return Collections.singletonList(new Words(1, aKey, aKey));
         }
 
         String code = aKey.replaceAll(nonZhuyinReg, "");
         code = GetTransCode(code);
-        loadKeymapIfNotLoaded(code);
-        KeyMap map = mKeymaps.get(code);
-        return map != null ? map.displays : null;
+        List<Words> displays = lookupWords(code);
+        if (displays.isEmpty()) {
+            return null;
+        }
+        mHasLookups = true;
+        return displays;
     }
 
 
+    /**
+     * Starts reading the word and phrase databases into memory in the background when the keyboard
+     * is selected. Lookups made before they are ready wait for them.
+     */
     private void loadDatabase() {
-        try {
-            mWordDB = new DBWordHelper(mContext);
-            mPhraseDB = new DBPhraseHelper(mContext);
-            addExtraKeyMaps();
+        addExtraKeyMaps();
+        final Context context = mContext.getApplicationContext();
+        mPendingDictionary = CompletableFuture.supplyAsync(() -> readDictionary(context),
+                ((VRBrowserApplication)context).getExecutors().diskRead());
+    }
+
+    private Dictionary getDictionary() {
+        if (mPendingDictionary != null) {
+            mDictionary = mPendingDictionary.join();
+            mPendingDictionary = null;
         }
-        catch (Exception ex) {
+        return mDictionary;
+    }
+
+    private static Dictionary readDictionary(Context aContext) {
+        KeymapTable.Builder words = new KeymapTable.Builder(1);
+        KeymapTable.Builder phrases = new KeymapTable.Builder(1);
+        try (DBWordHelper wordHelper = new DBWordHelper(aContext);
+             DBPhraseHelper phraseHelper = new DBPhraseHelper(aContext)) {
+            readTables(wordHelper.getReadableDatabase(), "words_", words);
+            readTables(phraseHelper.getReadableDatabase(), "phrases_", phrases);
+
+        } catch (Exception ex) {
             Log.e(LOGTAG, "Error reading zhuyin database: " + ex.getMessage());
         }
+
+        return new Dictionary(words.build(), phrases.build());
+    }
+
+    // The words are split in one table for each initial symbol.
+    private static void readTables(SQLiteDatabase aDatabase, String aPrefix, KeymapTable.Builder aResult) {
+        ArrayList<String> tables = new ArrayList<>();
+        try (Cursor cursor = aDatabase.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE ?", new String[]{aPrefix + "%"})) {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        }
+        for (String table : tables) {
+            try (Cursor cursor = aDatabase.rawQuery("SELECT code, word, frequency FROM " + table, null)) {
+                while (cursor.moveToNext()) {
+                    if (cursor.isNull(0) || cursor.isNull(1)) {
+                        continue;
+                    }
+                    aResult.add(cursor.getString(0), cursor.getInt(2), cursor.getString(1));
+                }
+            }
+        }
     }
 
     private String findLabelFromKey(int primaryCode) {
@@ -267,110 +317,78 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
         addKeyCode("ˉ", "44", "ˉ");
     }
 
-    private void loadKeymapIfNotLoaded(String aKey) {
-        if (mKeymaps.containsKey(aKey)) {
-            return;
+    /**
+     * Returns the words for the code, the most frequent first. Unless the code ends with a tone,
+     * the words and phrases starting with it are added as completions.
+     */
+    private List<Words> lookupWords(String aCode) {
+        ArrayList<Words> result = new ArrayList<>();
+        if (aCode.length() < 2) {
+            return result;
         }
-        loadKeymapTable(aKey);
-    }
-
-    private void loadKeymapTable(String aKey) {
-        SQLiteDatabase reader = mWordDB.getReadableDatabase();
-        String transCode = aKey;
-        int limit = 50;
-        boolean exactQuery = false;
         final char firstKeyCodeInTones = '4'; // the first keycode of tones[˙, ˊ, ˋ, ˉ].
+        boolean exactQuery = aCode.charAt(aCode.length() - 2) == firstKeyCodeInTones;
+        String code = removeFirstTones(aCode);
+        if (code.isEmpty()) {
+            return result;
+        }
 
-        // Finding if aKey contains tones.
-        if (transCode.charAt(transCode.length() - 2) == firstKeyCodeInTones) {
-            exactQuery = true;
-        }
-        // We didn't store the first tone in DB.
-        transCode = transCode.replaceAll("44", "");
-
-        sqliteArgs[0] = transCode;
-        sqliteArgs[1] = "" + limit;
-
-        // Query word exactly
-        try (Cursor cursor = reader.rawQuery("SELECT code, word FROM words_" + transCode.substring(0, 2)
-                + " WHERE code = ? GROUP BY word ORDER BY frequency DESC LIMIT ?", sqliteArgs)) {
-            if (cursor.moveToFirst()) {
-                do {
-                    String key = getString(cursor, 0);
-                    String displays = getString(cursor, 1);
-                    addToKeyMap(aKey, key, displays);
-                    --limit;
-                } while (limit >= 0 && cursor.moveToNext());
-            }
-        } catch (Exception e) {
-            Log.e(LOGTAG, "Querying Zhuyin db failed");
+        Dictionary dictionary = getDictionary();
+        KeymapTable words = dictionary.words;
+        int[] range = words.findPrefixRange(code);
+        // The code itself is the first key of the range.
+        int completions = range[0];
+        if (words.find(code) >= 0) {
+            completions++;
+            addMostFrequent(words, words.getFirstRow(range[0]), words.getFirstRow(completions), result);
         }
 
         if (!exactQuery) {
-            // Query word roughly
-            roughSqliteArgs[0] = transCode + "%";
-            roughSqliteArgs[1] = "" + transCode;
-            roughSqliteArgs[2] = "" + limit;
-            try (Cursor cursor = reader.rawQuery("SELECT code, word FROM words_" + transCode.substring(0, 2)
-                    + " WHERE code like ? and code!= ? GROUP BY word ORDER BY frequency DESC LIMIT ?", roughSqliteArgs)) {
-                if (cursor.moveToFirst()) {
-                    do {
-                        String key = getString(cursor, 0);
-                        String word = getString(cursor, 1);
-                        addToKeyMap(aKey, key, word);
-                        --limit;
-                    } while (limit >= 0 && cursor.moveToNext());
-                }
-            } catch (Exception e) {
-                Log.e(LOGTAG, "Querying Zhuyin db failed");
-            }
+            addMostFrequent(words, words.getFirstRow(completions), words.getFirstRow(range[1]), result);
         }
 
-        if (limit <= 0) {
-            return;
-        }
+        KeymapTable phrases = dictionary.phrases;
+        range = phrases.findPrefixRange(code);
+        addMostFrequent(phrases, phrases.getFirstRow(range[0]), phrases.getFirstRow(range[1]), result);
 
-        // Query phrase
-        reader = mPhraseDB.getReadableDatabase();
-        sqliteArgs[0] = transCode + '%';
-        sqliteArgs[1] = "" + limit;
-        try (Cursor cursor = reader.rawQuery("SELECT code, word FROM phrases_" + transCode.substring(0, 2)
-                + " WHERE code like ? GROUP BY word ORDER BY frequency DESC LIMIT ?", sqliteArgs)) {
-            if (cursor.moveToFirst()) {
-                do {
-                    String key = getString(cursor, 0);
-                    String word = getString(cursor, 1);
-                    addToKeyMap(aKey, key, word);
-                    --limit;
-                } while (limit >= 0 && cursor.moveToNext());
+        return result;
+    }
+
+    // We didn't store the first tone in DB.
+    private static String removeFirstTones(String aCode) {
+        StringBuilder result = new StringBuilder(aCode.length());
+        for (int i = 0; i + 1 < aCode.length(); i += 2) {
+            if (!aCode.startsWith(FIRST_TONE_CODE, i)) {
+                result.append(aCode, i, i + 2);
             }
-        } catch (Exception e) {
-            Log.e(LOGTAG, "Querying Zhuyin db failed");
         }
+        return result.toString();
     }
 
-    private void addToKeyMap(String aKey, String aCode, String aDisplays) {
-        if (aKey == null || aKey.isEmpty()) {
-            Log.e(LOGTAG, "Zhuyin key is null");
+    // Adds the words of the rows, the most frequent first and each one once, until there are
+    // MAX_CANDIDATES words.
+    private void addMostFrequent(KeymapTable aTable, int aFirstRow, int aEndRow, List<Words> aResult) {
+        if (aResult.size() >= MAX_CANDIDATES || aFirstRow >= aEndRow) {
             return;
         }
-        if (aCode == null || aCode.isEmpty()) {
-            Log.e(LOGTAG, "Zhuyin code is null");
-            return;
+        // The frequency goes in the high bits, so sorting the rows doesn't need boxing.
+        long[] rows = new long[aEndRow - aFirstRow];
+        for (int row = aFirstRow; row < aEndRow; row++) {
+            rows[row - aFirstRow] = ((long)-aTable.getValue(row) << 32) | row;
         }
-        KeyMap keyMap = mKeymaps.get(aKey);
-        if (keyMap == null) {
-            keyMap = new KeyMap();
-            mKeymaps.put(aKey, keyMap);
-        }
-
-        if (aDisplays != null && !aDisplays.isEmpty()) {
-            String[] displayList = aDisplays.split("\\|");
-            if (displayList != null) {
-                for (String display: displayList) {
-                    keyMap.displays.add(new Words(syllableCount(aCode), aCode, display));
-                }
+        Arrays.sort(rows);
+        HashSet<String> added = new HashSet<>();
+        for (long entry : rows) {
+            if (aResult.size() >= MAX_CANDIDATES) {
+                break;
             }
+            int row = (int)entry;
+            String word = aTable.getField(row, 0);
+            if (word == null || !added.add(word)) {
+                continue;
+            }
+            String code = aTable.getKey(aTable.getRowKey(row));
+            aResult.add(new Words(syllableCount(code), code, word));
         }
     }
 
@@ -391,20 +409,26 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
         return (int)aCode.chars().filter(ch -> ch == ' ').count() + 1;
     }
 
-    private String getString(Cursor aCursor, int aIndex) {
-        if (aCursor.isNull(aIndex)) {
-            return null;
-        }
-        return aCursor.getString(aIndex);
-    }
+    /**
+     * In-memory copy of the word and phrase databases, with the rows keyed by code. Each row
+     * has the word and its frequency.
+     */
+    private static class Dictionary {
+        final KeymapTable words;
+        final KeymapTable phrases;
 
+        Dictionary() {
+            this(new KeymapTable.Builder(1).build(), new KeymapTable.Builder(1).build());
+        }
 
-    class KeyMap {
-        ArrayList<Words> displays = new ArrayList<>();
+        Dictionary(KeymapTable aWords, KeymapTable aPhrases) {
+            words = aWords;
+            phrases = aPhrases;
+        }
     }
 
 
-    class DBWordHelper extends SQLiteAssetHelper {
+    static class DBWordHelper extends SQLiteAssetHelper {
         private static final String DATABASE_NAME = "zhuyin_words.db";
         private static final int DATABASE_VERSION = 1;
 
@@ -413,7 +437,7 @@ public class ChineseZhuyinKeyboard extends BaseKeyboard {
         }
     }
 
-    class DBPhraseHelper extends SQLiteAssetHelper {
+    static class DBPhraseHelper extends SQLiteAssetHelper {
         private static final String DATABASE_NAME = "zhuyin_phrases.db";
         private static final int DATABASE_VERSION = 1;
 
@@ -0,0 +1,261 @@
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Read-only keyboard dictionary packed in a few arrays, so large tables don't need an object per
+ * key or per row. Keys are sorted, so the keys starting with a prefix are a contiguous range, and
+ * the rows of each key keep the order they were added in. Every row has the same number of text
+ * fields and an int value.
+ * It's built once in the background and only read afterwards, so it's not synchronized.
+ */
+class KeymapTable {
+
+    private final char[] mKeyChars;
+    private final int[] mKeyOffsets;
+    private final int[] mKeyRows;
+    private final int mFieldCount;
+    private final char[] mFieldChars;
+    private final int[] mFieldOffsets;
+    private final int[] mValues;
+
+    static class Builder {
+        private final int mFieldCount;
+        private final ArrayList<String> mKeys = new ArrayList<>();
+        private final ArrayList<String> mFields = new ArrayList<>();
+        private int[] mValues = new int[16];
+
+        Builder(int aFieldCount) {
+            mFieldCount = aFieldCount;
+        }
+
+        /**
+         * Adds a row for the key. The fields can be null, they are stored as empty ones.
+         */
+        void add(@NonNull String aKey, int aValue, String... aFields) {
+            if (aFields.length != mFieldCount) {
+                throw new IllegalArgumentException("Expected " + mFieldCount + " fields");
+            }
+            int row = mKeys.size();
+            if (row == mValues.length) {
+                mValues = Arrays.copyOf(mValues, row * 2);
+            }
+            mKeys.add(aKey);
+            mValues[row] = aValue;
+            for (String field : aFields) {
+                mFields.add(field != null ? field : "");
+            }
+        }
+
+        @NonNull KeymapTable build() {
+            return new KeymapTable(this);
+        }
+    }
+
+    private KeymapTable(@NonNull Builder aBuilder) {
+        int rowCount = aBuilder.mKeys.size();
+        mFieldCount = aBuilder.mFieldCount;
+
+        // The sort is stable, so the rows of a key keep their order.
+        Integer[] order = new Integer[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> aBuilder.mKeys.get(a).compareTo(aBuilder.mKeys.get(b)));
+
+        int keyCount = 0;
+        int keyLength = 0;
+        int fieldLength = 0;
+        String previous = null;
+        for (int i = 0; i < rowCount; i++) {
+            String key = aBuilder.mKeys.get(order[i]);
+            if (!key.equals(previous)) {
+                keyCount++;
+                keyLength += key.length();
+                previous = key;
+            }
+            for (int field = 0; field < mFieldCount; field++) {
+                fieldLength += aBuilder.mFields.get(order[i] * mFieldCount + field).length();
+            }
+        }
+
+        mKeyChars = new char[keyLength];
+        mKeyOffsets = new int[keyCount + 1];
+        mKeyRows = new int[keyCount + 1];
+        mFieldChars = new char[fieldLength];
+        mFieldOffsets = new int[rowCount * mFieldCount + 1];
+        mValues = new int[rowCount];
+
+        int key = -1;
+        int keyOffset = 0;
+        int fieldOffset = 0;
+        previous = null;
+        for (int row = 0; row < rowCount; row++) {
+            int source = order[row];
+            String rowKey = aBuilder.mKeys.get(source);
+            if (!rowKey.equals(previous)) {
+                key++;
+                mKeyOffsets[key] = keyOffset;
+                mKeyRows[key] = row;
+                rowKey.getChars(0, rowKey.length(), mKeyChars, keyOffset);
+                keyOffset += rowKey.length();
+                previous = rowKey;
+            }
+            for (int field = 0; field < mFieldCount; field++) {
+                String value = aBuilder.mFields.get(source * mFieldCount + field);
+                mFieldOffsets[row * mFieldCount + field] = fieldOffset;
+                value.getChars(0, value.length(), mFieldChars, fieldOffset);
+                fieldOffset += value.length();
+            }
+            mValues[row] = aBuilder.mValues[source];
+        }
+        mKeyOffsets[keyCount] = keyOffset;
+        mKeyRows[keyCount] = rowCount;
+        mFieldOffsets[rowCount * mFieldCount] = fieldOffset;
+    }
+
+    /**
+     * Number of distinct keys.
+     */
+    int size() {
+        return mKeyRows.length - 1;
+    }
+
+    @NonNull String getKey(int aKey) {
+        return new String(mKeyChars, mKeyOffsets[aKey], getKeyLength(aKey));
+    }
+
+    /**
+     * Returns the index of the key, or -1 if it's not in the table.
+     */
+    int find(@NonNull String aKey) {
+        int[] range = findPrefixRange(aKey);
+        return range[0] < range[1] && getKeyLength(range[0]) == aKey.length() ? range[0] : -1;
+    }
+
+    /**
+     * Returns the range of keys that start with the prefix, the end excluded. The key equal to the
+     * prefix, if any, is the first one.
+     */
+    @NonNull int[] findPrefixRange(@NonNull String aPrefix) {
+        int start = 0;
+        int end = size();
+        for (int depth = 0; depth < aPrefix.length() && start < end; depth++) {
+            char c = aPrefix.charAt(depth);
+            start = lowerBound(start, end, depth, c);
+            end = upperBound(start, end, depth, c);
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * Returns the keys matching every prefix of the text from the given index, in a single pass.
+     * The key for the prefix of length n is at index n - 1, and is -1 if there is none. The result
+     * is shorter than the text when no key starts with the longer prefixes.
+     */
+    @NonNull int[] getPrefixKeys(@NonNull String aText, int aStart) {
+        int[] result = new int[aText.length() - aStart];
+        int depth = extendPrefixKeys(aText, aStart, 0, result, new int[2 * result.length]);
+        return Arrays.copyOf(result, depth);
+    }
+
+    /**
+     * Continues {@link #getPrefixKeys} from the prefix of the given length, so the keys of the
+     * shorter prefixes are not looked up again when the text grows. The range of keys starting
+     * with each prefix is stored in aRanges, its start and end at twice the prefix length minus
+     * two and one, and the walk resumes from the last one. Both arrays must fit the rest of the
+     * text. Returns the new prefix length, which is shorter than the rest of the text if no key
+     * starts with the next prefix.
+     */
+    int extendPrefixKeys(@NonNull String aText, int aStart, int aLength, @NonNull int[] aKeys, @NonNull int[] aRanges) {
+        int start = aLength > 0 ? aRanges[2 * aLength - 2] : 0;
+        int end = aLength > 0 ? aRanges[2 * aLength - 1] : size();
+        int depth = aLength;
+        for (; aStart + depth < aText.length(); depth++) {
+            char c = aText.charAt(aStart + depth);
+            start = lowerBound(start, end, depth, c);
+            end = upperBound(start, end, depth, c);
+            if (start == end) {
+                break;
+            }
+            aKeys[depth] = getKeyLength(start) == depth + 1 ? start : -1;
+            aRanges[2 * depth] = start;
+            aRanges[2 * depth + 1] = end;
+        }
+        return depth;
+    }
+
+    /**
+     * Index of the first row of the key. Passing the number of keys returns the number of rows,
+     * so the rows of the keys in a range are between the first rows of its start and its end.
+     */
+    int getFirstRow(int aKey) {
+        return mKeyRows[aKey];
+    }
+
+    /**
+     * Returns the key of the row.
+     */
+    int getRowKey(int aRow) {
+        int index = Arrays.binarySearch(mKeyRows, aRow);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // Keys always have rows, so the first rows are unique.
+        return index;
+    }
+
+    /**
+     * Returns the field of the row, or null if it's empty.
+     */
+    @Nullable String getField(int aRow, int aField) {
+        int index = aRow * mFieldCount + aField;
+        int start = mFieldOffsets[index];
+        int length = mFieldOffsets[index + 1] - start;
+        return length > 0 ? new String(mFieldChars, start, length) : null;
+    }
+
+    int getValue(int aRow) {
+        return mValues[aRow];
+    }
+
+    private int getKeyLength(int aKey) {
+        return mKeyOffsets[aKey + 1] - mKeyOffsets[aKey];
+    }
+
+    // The keys in the range share the characters before the depth, so they are sorted by the one at
+    // the depth. Keys that are not long enough go first.
+    private int charAt(int aKey, int aDepth) {
+        return aDepth < getKeyLength(aKey) ? mKeyChars[mKeyOffsets[aKey] + aDepth] : -1;
+    }
+
+    // First key of the range with a character at the depth greater than or equal to the given one.
+    private int lowerBound(int aStart, int aEnd, int aDepth, char aChar) {
+        while (aStart < aEnd) {
+            int middle = (aStart + aEnd) >>> 1;
+            if (charAt(middle, aDepth) < aChar) {
+                aStart = middle + 1;
+            } else {
+                aEnd = middle;
+            }
+        }
+        return aStart;
+    }
+
+    // First key of the range with a character at the depth greater than the given one.
+    private int upperBound(int aStart, int aEnd, int aDepth, char aChar) {
+        while (aStart < aEnd) {
+            int middle = (aStart + aEnd) >>> 1;
+            if (charAt(middle, aDepth) <= aChar) {
+                aStart = middle + 1;
+            } else {
+                aEnd = middle;
+            }
+        }
+        return aStart;
+    }
+}
@@ -0,0 +1,180 @@
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.mozilla.vrbrowser.ui.keyboards.KeyboardInterface.Words;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.IntFunction;
+
+/**
+ * Segmentation of the pinyin composing text into keys of a keymaps table. Every position of the
+ * text keeps the cheapest way to reach it, where each key costs one so phrases are preferred over
+ * single syllables. Between segmentations with the same cost the one with the longest leading keys
+ * wins.
+ * The best paths to the positions before the first changed character, and the keys starting at
+ * them, only depend on the text before that character, so they are kept from the last update.
+ * Typing or deleting at the end only looks up the keys that reach the new text.
+ */
+class PinyinLattice {
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final IntFunction<Words> mKeyWords;
+    private KeymapTable mKeymaps;
+    private String mText = "";
+    private int[] mCost = {0};
+    private int[] mPrevious = {-1};
+    private Words[] mWords = {null};
+    // Keys of the prefixes of the text from each position and their key ranges, as returned by
+    // KeymapTable.extendPrefixKeys, with the number of prefixes already looked up.
+    private int[][] mKeys = {};
+    private int[][] mKeyRanges = {};
+    private int[] mKeyCount = {};
+    private boolean[] mKeysEnded = {};
+    private int[] mNonLatinLength = {0};
+
+    /**
+     * @param aKeyWords Returns the word used for a key of the table, or null if it has none.
+     */
+    PinyinLattice(@NonNull IntFunction<Words> aKeyWords) {
+        mKeyWords = aKeyWords;
+    }
+
+    void update(@NonNull KeymapTable aKeymaps, @NonNull String aText) {
+        int reused = 0;
+        if (aKeymaps == mKeymaps) {
+            int maxReused = Math.min(mText.length(), aText.length());
+            while (reused < maxReused && mText.charAt(reused) == aText.charAt(reused)) {
+                reused++;
+            }
+        }
+        mKeymaps = aKeymaps;
+        mText = aText;
+
+        int length = aText.length();
+        mCost = Arrays.copyOf(mCost, length + 1);
+        mPrevious = Arrays.copyOf(mPrevious, length + 1);
+        mWords = Arrays.copyOf(mWords, length + 1);
+        for (int i = reused + 1; i <= length; i++) {
+            mCost[i] = UNREACHABLE;
+            mPrevious[i] = -1;
+            mWords[i] = null;
+        }
+
+        if (mKeys.length < length) {
+            int capacity = Math.max(length, 2 * mKeys.length);
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mKeyRanges = Arrays.copyOf(mKeyRanges, capacity);
+            mKeyCount = Arrays.copyOf(mKeyCount, capacity);
+            mKeysEnded = Arrays.copyOf(mKeysEnded, capacity);
+        }
+        // Only the prefixes within the reused text are kept. A lookup that ended before it stays
+        // ended, as the character no key continues with is still there.
+        for (int start = 0; start < length; start++) {
+            int kept = Math.max(reused - start, 0);
+            if (mKeyCount[start] >= kept) {
+                mKeyCount[start] = kept;
+                mKeysEnded[start] = false;
+            }
+        }
+
+        mNonLatinLength = Arrays.copyOf(mNonLatinLength, length + 1);
+        mNonLatinLength[length] = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            char c = aText.charAt(i);
+            mNonLatinLength[i] = c < 'a' || c > 'z' ? mNonLatinLength[i + 1] + 1 : 0;
+        }
+
+        // Only the keys ending after the reused positions need to be added.
+        for (int start = 0; start < length; start++) {
+            if (mCost[start] == UNREACHABLE) {
+                continue;
+            }
+            int maxEnd = start + Math.max(getKeyCount(start), mNonLatinLength[start]);
+            for (int end = Math.max(start + 1, reused + 1); end <= maxEnd; end++) {
+                Words word = getWord(start, end);
+                if (word == null) {
+                    continue;
+                }
+                int cost = mCost[start] + 1;
+                if (cost < mCost[end] || (cost == mCost[end] && hasLongerLeadingKeys(start, mPrevious[end]))) {
+                    mCost[end] = cost;
+                    mPrevious[end] = start;
+                    mWords[end] = word;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the words of the best segmentation joined in a single candidate. If the end of
+     * the text can't be reached the best segmentation of the longest reachable part is used.
+     */
+    @NonNull Words getBestCandidate() {
+        int end = mText.length();
+        while (end > 0 && mCost[end] == UNREACHABLE) {
+            end--;
+        }
+
+        ArrayList<Words> path = new ArrayList<>();
+        for (int i = end; i > 0; i = mPrevious[i]) {
+            path.add(mWords[i]);
+        }
+        Collections.reverse(path);
+
+        StringBuilder code = new StringBuilder();
+        StringBuilder candidate = new StringBuilder();
+        for (Words word : path) {
+            if (code.length() != 0) {
+                code.append(' ');
+            }
+            code.append(word.code);
+            candidate.append(word.value);
+        }
+
+        return new Words(path.size(), code.toString(), candidate.toString());
+    }
+
+    // Number of prefixes from the position that some key starts with, looking up the ones after
+    // the last update.
+    private int getKeyCount(int aStart) {
+        int available = mText.length() - aStart;
+        if (!mKeysEnded[aStart] && mKeyCount[aStart] < available) {
+            if (mKeys[aStart] == null || mKeys[aStart].length < available) {
+                int capacity = Math.max(available, mKeys[aStart] != null ? 2 * mKeys[aStart].length : 0);
+                mKeys[aStart] = mKeys[aStart] != null ? Arrays.copyOf(mKeys[aStart], capacity) : new int[capacity];
+                mKeyRanges[aStart] = mKeyRanges[aStart] != null ? Arrays.copyOf(mKeyRanges[aStart], 2 * capacity) : new int[2 * capacity];
+            }
+            mKeyCount[aStart] = mKeymaps.extendPrefixKeys(mText, aStart, mKeyCount[aStart], mKeys[aStart], mKeyRanges[aStart]);
+            mKeysEnded[aStart] = mKeyCount[aStart] < available;
+        }
+        return mKeyCount[aStart];
+    }
+
+    // Word used when the key spans from aStart to aEnd, or null if there is none.
+    private @Nullable Words getWord(int aStart, int aEnd) {
+        int length = aEnd - aStart;
+        if (length <= mNonLatinLength[aStart]) {
+            String key = mText.substring(aStart, aEnd);
+            return new Words(1, key, key);
+        }
+        int key = length <= mKeyCount[aStart] ? mKeys[aStart][length - 1] : -1;
+        return key >= 0 ? mKeyWords.apply(key) : null;
+    }
+
+    // Paths with the same cost have the same number of keys, so their boundaries are compared
+    // walking back from both positions together. The first boundary where they differ is the
+    // last one found before the paths join.
+    private boolean hasLongerLeadingKeys(int aPosition, int aCurrentPosition) {
+        boolean longer = false;
+        while (aPosition != aCurrentPosition) {
+            longer = aPosition > aCurrentPosition;
+            aPosition = mPrevious[aPosition];
+            aCurrentPosition = mPrevious[aCurrentPosition];
+        }
+        return longer;
+    }
+}
@@ -39,16 +39,11 @@ import org.mozilla.vrbrowser.utils.SystemUtils;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Comparator;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import mozilla.components.concept.storage.VisitInfo;
 import mozilla.components.concept.storage.VisitType;
@@ -66,11 +61,16 @@ public class HistoryView extends FrameLayout implements HistoryStore.HistoryList
 
     private static final boolean ACCOUNTS_UI_ENABLED = false;
 
+    private static final int PAGE_SIZE = 100;
+    private static final int LOAD_MORE_THRESHOLD = 20;
+
     private HistoryBinding mBinding;
     private Accounts mAccounts;
     private HistoryAdapter mHistoryAdapter;
     private ArrayList<HistoryCallback> mHistoryViewListeners;
     private Executor mUIThreadExecutor;
+    private HistoryPages mHistoryPages;
+    private boolean mIsLoadingPage;
 
     public HistoryView(Context aContext) {
         super(aContext);
@@ -164,6 +164,10 @@ public class HistoryView extends FrameLayout implements HistoryStore.HistoryList
             if (recyclerView.getScrollState() != RecyclerView.SCROLL_STATE_SETTLING) {
                 recyclerView.requestFocus();
             }
+
+            if (dy > 0) {
+                loadMoreIfNeeded();
+            }
         }
     };
 
@@ -327,70 +331,133 @@ public class HistoryView extends FrameLayout implements HistoryStore.HistoryList
         }
     };
 
-    @NonNull
-    public static <T> Predicate<T> distinctByUrl(Function<? super T, ?> keyExtractor) {
-        Set<Object> seen = ConcurrentHashMap.newKeySet();
-        return t -> seen.add(keyExtractor.apply(t));
+    /**
+     * History visits loaded so far, de-duplicated by url and split in sections. Places returns the
+     * visits ordered by date, so every page is appended after the previous one.
+     */
+    private static class HistoryPages {
+        private final long[] mSectionStarts;
+        private final String[] mSectionTitles;
+        private final HashSet<String> mSeenUrls = new HashSet<>();
+        private final ArrayList<VisitInfo> mItems = new ArrayList<>();
+        private int mCurrentSection = -1;
+        long mVisitCount;
+        boolean mHasMore = true;
+
+        HistoryPages(@NonNull Context aContext) {
+            Calendar date = new GregorianCalendar();
+            date.set(Calendar.HOUR_OF_DAY, 0);
+            date.set(Calendar.MINUTE, 0);
+            date.set(Calendar.SECOND, 0);
+            date.set(Calendar.MILLISECOND, 0);
+
+            long todayLimit = date.getTimeInMillis();
+            long yesterdayLimit = todayLimit - SystemUtils.ONE_DAY_MILLIS;
+            long oneWeekLimit = todayLimit - SystemUtils.ONE_WEEK_MILLIS;
+
+            mSectionStarts = new long[] { Long.MAX_VALUE, todayLimit, yesterdayLimit, oneWeekLimit };
+            mSectionTitles = new String[] {
+                    aContext.getString(R.string.history_section_today),
+                    aContext.getString(R.string.history_section_yesterday),
+                    aContext.getString(R.string.history_section_last_week),
+                    aContext.getString(R.string.history_section_older)
+            };
+        }
+
+        /**
+         * Appends a page of visits.
+         * @return a copy of all the items loaded so far, including the section headers.
+         */
+        List<VisitInfo> append(@NonNull List<VisitInfo> aVisits, long aRequestedCount) {
+            for (VisitInfo visit : aVisits) {
+                if (!mSeenUrls.add(visit.getUrl())) {
+                    continue;
+                }
+                int section = getSection(visit.getVisitTime());
+                if (section > mCurrentSection) {
+                    mCurrentSection = section;
+                    mItems.add(new VisitInfo(
+                            mSectionTitles[section],
+                            mSectionTitles[section],
+                            mSectionStarts[section],
+                            VisitType.NOT_A_VISIT
+                    ));
+                }
+                mItems.add(visit);
+            }
+            mVisitCount += aVisits.size();
+            mHasMore = aVisits.size() >= aRequestedCount;
+
+            return new ArrayList<>(mItems);
+        }
+
+        private int getSection(long aVisitTime) {
+            for (int i = 1; i < mSectionStarts.length; i++) {
+                if (aVisitTime >= mSectionStarts[i]) {
+                    return i - 1;
+                }
+            }
+            return mSectionStarts.length - 1;
+        }
     }
 
     private void updateHistory() {
-        Calendar date = new GregorianCalendar();
-        date.set(Calendar.HOUR_OF_DAY, 0);
-        date.set(Calendar.MINUTE, 0);
-        date.set(Calendar.SECOND, 0);
-        date.set(Calendar.MILLISECOND, 0);
-
-        long todayLimit = date.getTimeInMillis();
-        long yesterdayLimit = todayLimit - SystemUtils.ONE_DAY_MILLIS;
-        long oneWeekLimit = todayLimit - SystemUtils.ONE_WEEK_MILLIS;
-
-        SessionStore.get().getHistoryStore().getDetailedHistory().thenAcceptAsync((items) -> {
-            List<VisitInfo> orderedItems = items.stream()
-                    .sorted(Comparator.comparing(VisitInfo::getVisitTime)
-                    .reversed())
-                    .filter(distinctByUrl(VisitInfo::getUrl))
-                    .collect(Collectors.toList());
-
-            addSection(orderedItems, getResources().getString(R.string.history_section_today), Long.MAX_VALUE, todayLimit);
-            addSection(orderedItems, getResources().getString(R.string.history_section_yesterday), todayLimit, yesterdayLimit);
-            addSection(orderedItems, getResources().getString(R.string.history_section_last_week), yesterdayLimit, oneWeekLimit);
-            addSection(orderedItems, getResources().getString(R.string.history_section_older), oneWeekLimit, 0);
-
-            showHistory(orderedItems);
-
-        }, mUIThreadExecutor).exceptionally(throwable -> {
-            Log.d(LOGTAG, "Error getting history: " + throwable.getLocalizedMessage());
-            throwable.printStackTrace();
-            return null;
-        });
+        // Reload as many visits as are currently loaded, so the list doesn't shrink while scrolled.
+        long count = mHistoryPages != null ? Math.max(mHistoryPages.mVisitCount, PAGE_SIZE) : PAGE_SIZE;
+        mHistoryPages = new HistoryPages(getContext());
+        loadPage(mHistoryPages, count);
     }
 
-    private void addSection(final @NonNull List<VisitInfo> items, @NonNull String section, long rangeStart, long rangeEnd) {
-        for (int i=0; i< items.size(); i++) {
-            if (items.get(i).getVisitTime() == rangeStart && items.get(i).getVisitType() == VisitType.NOT_A_VISIT)
-                break;
-
-            if (items.get(i).getVisitTime() < rangeStart && items.get(i).getVisitTime() > rangeEnd) {
-                items.add(i, new VisitInfo(
-                        section,
-                        section,
-                        rangeStart,
-                        VisitType.NOT_A_VISIT
-                ));
-                break;
+    private void loadMoreIfNeeded() {
+        if (mHistoryPages == null || mIsLoadingPage || !mHistoryPages.mHasMore) {
+            return;
+        }
+        if (mBinding.historyList.getLayoutManager() instanceof LinearLayoutManager) {
+            LinearLayoutManager layoutManager = (LinearLayoutManager) mBinding.historyList.getLayoutManager();
+            if (layoutManager.findLastVisibleItemPosition() >= mHistoryAdapter.getItemCount() - LOAD_MORE_THRESHOLD) {
+                loadPage(mHistoryPages, PAGE_SIZE);
             }
         }
     }
 
+    private void loadPage(@NonNull HistoryPages aPages, long aCount) {
+        mIsLoadingPage = true;
+        SessionStore.get().getHistoryStore().getVisitsPaginated(aPages.mVisitCount, aCount)
+                .thenApply(visits -> aPages.append(visits != null ? visits : new ArrayList<>(), aCount))
+                .thenAcceptAsync((items) -> {
+                    if (aPages != mHistoryPages) {
+                        // The history has been reloaded in the meantime.
+                        return;
+                    }
+                    mIsLoadingPage = false;
+                    showHistory(items);
+
+                }, mUIThreadExecutor).exceptionally(throwable -> {
+                    Log.d(LOGTAG, "Error getting history: " + throwable.getLocalizedMessage());
+                    throwable.printStackTrace();
+                    mUIThreadExecutor.execute(() -> {
+                        if (aPages == mHistoryPages) {
+                            mIsLoadingPage = false;
+                        }
+                    });
+                    return null;
+                });
+    }
+
     private void showHistory(List<VisitInfo> historyItems) {
-        if (historyItems == null || historyItems.size() == 0) {
+        if (historyItems.isEmpty() && mHistoryPages.mHasMore) {
+            // Every visit in the page was a duplicate, keep loading.
+            loadPage(mHistoryPages, PAGE_SIZE);
+
+        } else if (historyItems.isEmpty()) {
             mBinding.setIsEmpty(true);
             mBinding.setIsLoading(false);
+            mHistoryAdapter.setHistoryList(historyItems, null);
 
         } else {
             mBinding.setIsEmpty(false);
             mBinding.setIsLoading(false);
-            mHistoryAdapter.setHistoryList(historyItems);
+            mHistoryAdapter.setHistoryList(historyItems, this::loadMoreIfNeeded);
         }
     }
 
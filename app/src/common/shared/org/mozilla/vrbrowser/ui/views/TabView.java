@@ -58,6 +58,7 @@ public class TabView extends RelativeLayout implements GeckoSession.ContentDeleg
         void onClick(TabView aSender);
         void onAdd(TabView aSender);
         void onSend(TabView aSender);
+        void onHover(TabView aSender);
     }
 
     public TabView(Context context) {
@@ -146,7 +147,7 @@ public class TabView extends RelativeLayout implements GeckoSession.ContentDeleg
         mSession.addContentListener(this);
         mSession.addBitmapChangedListener(this);
         mShowAddTab = false;
-        mBitmapFuture = aBitmapCache.getBitmap(mSession.getId());
+        mBitmapFuture = aBitmapCache.getThumbnail(mSession.getId());
         mPreview.setImageResource(R.drawable.ic_icon_tabs_placeholder);
         mUsingPlaceholder = true;
         mBitmapFuture.thenAccept(bitmap -> {
@@ -234,6 +235,9 @@ public class TabView extends RelativeLayout implements GeckoSession.ContentDeleg
     public void onHoverChanged(boolean aHovered) {
         super.onHoverChanged(aHovered);
         updateState();
+        if (aHovered && !mShowAddTab && mSession != null && mDelegate != null) {
+            mDelegate.onHover(this);
+        }
     }
 
     @Override
@@ -35,7 +35,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.mozilla.geckoview.GeckoSession;
+import org.mozilla.vrbrowser.AppExecutors;
+import org.mozilla.vrbrowser.BuildConfig;
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.browser.SettingsStore;
 import org.mozilla.vrbrowser.browser.engine.Session;
 import org.mozilla.vrbrowser.input.CustomKeyboard;
@@ -65,7 +68,13 @@ import org.mozilla.vrbrowser.ui.widgets.dialogs.VoiceSearchWidget;
 import org.mozilla.vrbrowser.utils.StringUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 
 public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKeyboardActionListener, AutoCompletionView.Delegate,
@@ -109,6 +118,11 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     private boolean mInternalDeleteHint = false;
     private Session mSession;
     private boolean mInputRestarted = false;
+    private Executor mCandidatesExecutor;
+    private Executor mUIThreadExecutor;
+    // Incremented for every candidates request, results for older versions are dropped.
+    private final AtomicInteger mCandidatesVersion = new AtomicInteger();
+    private final HashMap<KeyboardInterface, CandidatesLatency> mCandidatesLatency = new HashMap<>();
 
     private class MoveTouchListener implements OnTouchListener {
         @Override
@@ -166,6 +180,10 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     private void initialize(Context aContext) {
         inflate(aContext, R.layout.keyboard, this);
 
+        AppExecutors executors = ((VRBrowserApplication)aContext.getApplicationContext()).getExecutors();
+        mCandidatesExecutor = executors.keyboardCandidates();
+        mUIThreadExecutor = executors.mainThread();
+
         mWidgetManager.addFocusChangeListener(this);
 
         mKeyboardView = findViewById(R.id.keyboard);
@@ -375,7 +393,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
             mWidgetManager.updateWidget(this);
         }
 
-        mCurrentKeyboard.clear();
+        clearKeyboard();
         updateCandidates();
         updateSpecialKeyLabels();
     }
@@ -702,9 +720,10 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
     }
 
     private void handleEmojiInput() {
-        final KeyboardInterface.CandidatesResult candidates = mCurrentKeyboard.getEmojiCandidates(mComposingText);
-        setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
-        mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
+        requestCandidates(mComposingText, true, candidates -> {
+            setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
+            mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
+        });
     }
 
     private void handleDomain() {
@@ -923,37 +942,154 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
 
     private void updateCandidates() {
         if (mInputConnection == null || !mCurrentKeyboard.supportsAutoCompletion()) {
+            // Drop the results of any pending request.
+            mCandidatesVersion.incrementAndGet();
             setAutoCompletionVisible(false);
             updateSpecialKeyLabels();
             return;
         }
 
         if (mCurrentKeyboard.usesComposingText()) {
-            final KeyboardInterface.CandidatesResult candidates = mCurrentKeyboard.getCandidates(mComposingText);
-            setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
-            mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
-            if (candidates != null && candidates.action == KeyboardInterface.CandidatesResult.Action.AUTO_COMPOSE) {
-                onAutoCompletionItemClick(candidates.words.get(0));
-            } else if (candidates != null) {
-                postInputCommand(() -> displayComposingText(candidates.composing, ComposingAction.DO_NOT_FINISH));
-            } else {
-                mComposingText = "";
+            final String composingText = mComposingText;
+            requestCandidates(composingText, false, false, (candidates, latest) -> {
+                // Composing or finishing the text are actions, so they are applied in order even if
+                // more text was typed since. Only the latest candidates are shown.
+                boolean isAction = candidates == null || candidates.action == KeyboardInterface.CandidatesResult.Action.AUTO_COMPOSE;
+                final String typedAfter = mComposingText.startsWith(composingText) ? mComposingText.substring(composingText.length()) : null;
+                boolean isComposingTextKept = typedAfter != null;
+                boolean isComposingTextCurrent = latest && composingText.equals(mComposingText);
+                boolean shouldApply = isAction ? isComposingTextKept : isComposingTextCurrent;
+                if (!shouldApply) {
+                    // The composing text was cleared, committed or edited while the candidates were computed.
+                    return;
+                }
+                setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
+                mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
+                if (candidates != null && candidates.action == KeyboardInterface.CandidatesResult.Action.AUTO_COMPOSE) {
+                    mComposingText = composingText;
+                    onAutoCompletionItemClick(candidates.words.get(0));
+                    mComposingText += typedAfter;
+                } else if (candidates != null) {
+                    postInputCommand(() -> displayComposingText(candidates.composing, ComposingAction.DO_NOT_FINISH));
+                } else {
+                    mComposingText = typedAfter;
 
-                postInputCommand(() -> {
-                    displayComposingText("", ComposingAction.FINISH);
-                });
-            }
+                    postInputCommand(() -> {
+                        displayComposingText("", ComposingAction.FINISH);
+                    });
+                }
+                updateSpecialKeyLabels();
+            });
         } else {
             String fullText = mInputConnection.getExtractedText(new ExtractedTextRequest(),0).text.toString();
             String beforeText = mInputConnection.getTextBeforeCursor(fullText.length(),0).toString();
-            final KeyboardInterface.CandidatesResult candidates = mCurrentKeyboard.getCandidates(beforeText);
-            setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
-            mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
+            requestCandidates(beforeText, false, candidates -> {
+                setAutoCompletionVisible(candidates != null && candidates.words.size() > 0);
+                mAutoCompletionView.setItems(candidates != null ? candidates.words : null);
+            });
         }
 
         updateSpecialKeyLabels();
     }
 
+    /**
+     * Computes the candidates for the text in the background. The callback is called in the UI
+     * thread, and only if no newer request was made and the keyboard is still the current one.
+     */
+    private void requestCandidates(final String aText, final boolean aEmoji, final Consumer<KeyboardInterface.CandidatesResult> aCallback) {
+        requestCandidates(aText, aEmoji, true, (candidates, latest) -> {
+            if (latest) {
+                aCallback.accept(candidates);
+            }
+        });
+    }
+
+    /**
+     * Computes the candidates for the text in the background. Unless aSkipSuperseded is false,
+     * the request is skipped if a newer one was made before it started. The callback is called in
+     * the UI thread in the order of the requests, with whether no newer request was made, and only
+     * if the keyboard is still the current one. If the keyboard fails it gets null candidates.
+     */
+    private void requestCandidates(final String aText, final boolean aEmoji, final boolean aSkipSuperseded,
+                                   final BiConsumer<KeyboardInterface.CandidatesResult, Boolean> aCallback) {
+        final KeyboardInterface keyboard = mCurrentKeyboard;
+        final int version = mCandidatesVersion.incrementAndGet();
+        mCandidatesExecutor.execute(() -> {
+            if (aSkipSuperseded && version != mCandidatesVersion.get()) {
+                // A newer request is already queued.
+                return;
+            }
+            long start = System.nanoTime();
+            KeyboardInterface.CandidatesResult result;
+            try {
+                result = aEmoji ? keyboard.getEmojiCandidates(aText) : keyboard.getCandidates(aText);
+
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Error computing keyboard candidates: " + e.getMessage());
+                result = null;
+            }
+            final KeyboardInterface.CandidatesResult candidates = result;
+            final long elapsed = System.nanoTime() - start;
+
+            mUIThreadExecutor.execute(() -> {
+                recordCandidatesLatency(keyboard, elapsed);
+                if (keyboard == mCurrentKeyboard) {
+                    aCallback.accept(candidates, version == mCandidatesVersion.get());
+                }
+            });
+        });
+    }
+
+    /**
+     * Clears the keyboard state in the candidates executor, which is the only thread using the
+     * keyboards' engines. The candidates computed before it are no longer shown.
+     */
+    private void clearKeyboard() {
+        mCandidatesVersion.incrementAndGet();
+        mCandidatesExecutor.execute(mCurrentKeyboard::clear);
+    }
+
+    private void recordCandidatesLatency(KeyboardInterface aKeyboard, long aNanos) {
+        // The latency is only tracked and logged in debug builds.
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        CandidatesLatency latency = mCandidatesLatency.get(aKeyboard);
+        if (latency == null) {
+            latency = new CandidatesLatency();
+            mCandidatesLatency.put(aKeyboard, latency);
+        }
+        latency.record(aNanos);
+        if (aNanos > CandidatesLatency.FRAME_NANOS) {
+            Log.d(LOGTAG, aKeyboard.getClass().getSimpleName() + " candidates took " + TimeUnit.NANOSECONDS.toMillis(aNanos) + "ms");
+        }
+        if (latency.count % CandidatesLatency.LOG_INTERVAL == 0) {
+            Log.d(LOGTAG, aKeyboard.getClass().getSimpleName() + " candidates latency: " + latency);
+        }
+    }
+
+    private static class CandidatesLatency {
+        static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+        static final int LOG_INTERVAL = 100;
+
+        int count;
+        long totalNanos;
+        long maxNanos;
+
+        void record(long aNanos) {
+            count++;
+            totalNanos += aNanos;
+            maxNanos = Math.max(maxNanos, aNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count +
+                    " avg=" + TimeUnit.NANOSECONDS.toMicros(totalNanos / count) + "us" +
+                    " max=" + TimeUnit.NANOSECONDS.toMicros(maxNanos) + "us";
+        }
+    }
+
     private void updateSpecialKeyLabels() {
         String enterText = mCurrentKeyboard.getEnterKeyText(mEditorInfo.imeOptions, mComposingText);
         String modeChangeText = mCurrentKeyboard.getModeChangeKeyText();
@@ -1193,7 +1329,7 @@ public class KeyboardWidget extends UIWidget implements CustomKeyboardView.OnKey
         if (!mInternalDeleteHint && mCurrentKeyboard.usesComposingText() && mComposingText.length() > 0 && mTextBefore.length() > 0 && aEditable.toString().length() == 0) {
             // Text has been cleared externally (e.g. URLBar text clear button)
             mComposingText = "";
-            mCurrentKeyboard.clear();
+            clearKeyboard();
             updateCandidates();
         }
         mInternalDeleteHint = false;
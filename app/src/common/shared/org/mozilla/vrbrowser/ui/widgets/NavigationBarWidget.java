@@ -817,6 +817,10 @@ public class NavigationBarWidget extends UIWidget implements GeckoSession.Naviga
         mSuggestionsProvider.setFilterText(originalText);
         mSuggestionsProvider.getSuggestions()
                 .whenCompleteAsync((items, ex) -> {
+                    // Skip the results of a query that has been superseded while it was running.
+                    if (!originalText.equals(mBinding.navigationBarNavigation.urlBar.getOriginalText().trim())) {
+                        return;
+                    }
                     if (mBinding.navigationBarNavigation.urlBar.hasFocus()) {
                         mAwesomeBar.updateItems(items);
                         mAwesomeBar.setHighlightedText(originalText);
@@ -172,10 +172,11 @@ public class SuggestionsWidget extends UIWidget implements WidgetManagerDelegate
     }
 
     public void updateItems(List<SuggestionItem> items) {
+        // Update the items without notifying, so the list is only rebound once.
+        mAdapter.setNotifyOnChange(false);
         mAdapter.clear();
         mAdapter.addAll(items);
         mAdapter.notifyDataSetChanged();
-        mList.invalidateViews();
     }
 
     public void updatePlacement(int aWidth) {
@@ -9,10 +9,17 @@ import android.view.ViewGroup;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.mozilla.vrbrowser.R;
+import org.mozilla.vrbrowser.VRBrowserApplication;
 import org.mozilla.vrbrowser.browser.engine.Session;
 import org.mozilla.vrbrowser.browser.engine.SessionStore;
 import org.mozilla.vrbrowser.ui.views.TabView;
@@ -24,6 +31,9 @@ import org.mozilla.vrbrowser.utils.BitmapCache;
 import org.mozilla.vrbrowser.utils.UrlUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
 
 public class TabsWidget extends UIDialog {
     protected BitmapCache mBitmapCache;
@@ -125,22 +135,22 @@ public class TabsWidget extends UIDialog {
         mCloseTabsAllButton = findViewById(R.id.tabsCloseAllButton);
         mCloseTabsAllButton.setOnClickListener(v -> {
             if (mTabDelegate != null) {
-                mTabDelegate.onTabsClose(mAdapter.mTabs);
+                mTabDelegate.onTabsClose(new ArrayList<>(mAdapter.getTabs()));
             }
             onDismiss();
         });
 
         mSelectAllButton = findViewById(R.id.tabsSelectAllButton);
         mSelectAllButton.setOnClickListener(v -> {
-            mSelectedTabs = new ArrayList<>(mAdapter.mTabs);
-            mAdapter.notifyDataSetChanged();
+            mSelectedTabs = new ArrayList<>(mAdapter.getTabs());
+            mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
             updateSelectionMode();
         });
 
         mUnselectTabs = findViewById(R.id.tabsUnselectButton);
         mUnselectTabs.setOnClickListener(v -> {
             mSelectedTabs.clear();
-            mAdapter.notifyDataSetChanged();
+            mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
             updateSelectionMode();
         });
     }
@@ -187,7 +197,25 @@ public class TabsWidget extends UIDialog {
     }
 
     public class TabAdapter extends RecyclerView.Adapter<TabAdapter.MyViewHolder> {
-        private ArrayList<Session> mTabs = new ArrayList<>();
+        private static final long ADD_TAB_ID = 0;
+
+        private final AsyncListDiffer<TabItem> mDiffer;
+        private final HashMap<String, Long> mStableIds = new HashMap<>();
+
+        // Sessions are updated in place, so the differ compares the values shown when each list was submitted.
+        private class TabItem {
+            final Session session;
+            final String title;
+            final String uri;
+            final String thumbnailKey;
+
+            TabItem(@NonNull Session aSession) {
+                session = aSession;
+                title = aSession.getCurrentTitle();
+                uri = aSession.getCurrentUri();
+                thumbnailKey = aSession.getId();
+            }
+        }
 
         class MyViewHolder extends RecyclerView.ViewHolder {
             // each data item is just a string in this case
@@ -199,17 +227,66 @@ public class TabsWidget extends UIDialog {
 
         }
 
-        TabAdapter() {}
+        TabAdapter() {
+            mDiffer = new AsyncListDiffer<>(new ListUpdateCallback() {
+                // The first row is the add tab button, so session positions are shifted by one.
+                @Override
+                public void onInserted(int position, int count) {
+                    notifyItemRangeInserted(position + 1, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    notifyItemRangeRemoved(position + 1, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    notifyItemMoved(fromPosition + 1, toPosition + 1);
+                }
+
+                @Override
+                public void onChanged(int position, int count, @Nullable Object payload) {
+                    notifyItemRangeChanged(position + 1, count, payload);
+                }
+            }, new AsyncDifferConfig.Builder<>(new DiffUtil.ItemCallback<TabItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull TabItem oldItem, @NonNull TabItem newItem) {
+                    return oldItem.session == newItem.session;
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull TabItem oldItem, @NonNull TabItem newItem) {
+                    return Objects.equals(oldItem.title, newItem.title) &&
+                            Objects.equals(oldItem.uri, newItem.uri) &&
+                            Objects.equals(oldItem.thumbnailKey, newItem.thumbnailKey);
+                }
+            }).setBackgroundThreadExecutor(((VRBrowserApplication)getContext().getApplicationContext()).getExecutors().listDiff()).build());
+
+            setHasStableIds(true);
+        }
+
+        List<Session> getTabs() {
+            List<TabItem> items = mDiffer.getCurrentList();
+            ArrayList<Session> tabs = new ArrayList<>(items.size());
+            for (TabItem item : items) {
+                tabs.add(item.session);
+            }
+            return tabs;
+        }
 
-        void updateTabs(ArrayList<Session> aTabs) {
-            mTabs = aTabs;
-            notifyDataSetChanged();
-            updateTabCounter();
+        void updateTabs(List<Session> aTabs) {
+            ArrayList<TabItem> items = new ArrayList<>(aTabs.size());
+            for (Session session : aTabs) {
+                items.add(new TabItem(session));
+            }
+            mDiffer.submitList(items, this::updateTabCounter);
         }
 
         void updateTabCounter() {
-            if (mTabs.size() > 1) {
-                mTabsAvailableCounter.setText(getContext().getString(R.string.tabs_counter_plural, String.valueOf(mTabs.size())));
+            List<TabItem> tabs = mDiffer.getCurrentList();
+            if (tabs.size() > 1) {
+                mTabsAvailableCounter.setText(getContext().getString(R.string.tabs_counter_plural, String.valueOf(tabs.size())));
             } else {
                 mTabsAvailableCounter.setText(R.string.tabs_counter_singular);
             }
@@ -226,7 +303,7 @@ public class TabsWidget extends UIDialog {
         @Override
         public void onBindViewHolder(MyViewHolder holder, int position) {
             if (position > 0) {
-                Session session = mTabs.get(position - 1);
+                Session session = mDiffer.getCurrentList().get(position - 1).session;
                 holder.tabView.attachToSession(session, mBitmapCache);
             } else {
                 holder.tabView.setAddTabMode(true);
@@ -249,15 +326,16 @@ public class TabsWidget extends UIDialog {
                         closed.add(aSender.getSession());
                         mTabDelegate.onTabsClose(closed);
                     }
-                    if (mTabs.size() > 1) {
+                    List<Session> tabs = getTabs();
+                    if (tabs.size() > 1) {
                         ArrayList<Session> latestTabs = SessionStore.get().getSortedSessions(mPrivateMode);
-                        if (latestTabs.size() != (mTabs.size() - 1) && latestTabs.size() > 0) {
+                        if (latestTabs.size() != (tabs.size() - 1) && latestTabs.size() > 0) {
                             aSender.attachToSession(latestTabs.get(0), mBitmapCache);
                             return;
                         }
-                        mTabs.remove(holder.getAdapterPosition() - 1);
-                        mAdapter.notifyItemRemoved(holder.getAdapterPosition());
-                        updateTabCounter();
+                        ArrayList<Session> newTabs = new ArrayList<>(tabs);
+                        newTabs.remove(holder.getAdapterPosition() - 1);
+                        updateTabs(newTabs);
 
                     } else {
                         onDismiss();
@@ -300,12 +378,35 @@ public class TabsWidget extends UIDialog {
                     mSendTabDialog.mWidgetPlacement.parentHandle = mWidgetManager.getFocusedWindow().getHandle();
                     mSendTabDialog.show(UIWidget.REQUEST_FOCUS);
                 }
+
+                @Override
+                public void onHover(TabView aSender) {
+                    if (mSelecting || aSender.getSession() == null) {
+                        return;
+                    }
+                    // Warm up the hovered tab so switching to it shows content right away.
+                    SessionStore.get().prefetchSession(aSender.getSession());
+                }
             });
         }
 
         @Override
         public int getItemCount() {
-            return mTabs.size() + 1;
+            return mDiffer.getCurrentList().size() + 1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            if (position == 0) {
+                return ADD_TAB_ID;
+            }
+            String sessionId = mDiffer.getCurrentList().get(position - 1).session.getId();
+            Long id = mStableIds.get(sessionId);
+            if (id == null) {
+                id = (long) mStableIds.size() + 1;
+                mStableIds.put(sessionId, id);
+            }
+            return id;
         }
     }
 
@@ -318,7 +419,7 @@ public class TabsWidget extends UIDialog {
         mSelecting = true;
         mSelectTabsButton.setVisibility(View.GONE);
         mDoneButton.setVisibility(View.VISIBLE);
-        mAdapter.notifyDataSetChanged();
+        mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
         updateSelectionMode();
         mWidgetManager.pushBackHandler(mSelectModeBackHandler);
     }
@@ -331,7 +432,7 @@ public class TabsWidget extends UIDialog {
         mSelectTabsButton.setVisibility(View.VISIBLE);
         mDoneButton.setVisibility(View.GONE);
         mSelectedTabs.clear();
-        mAdapter.notifyDataSetChanged();
+        mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
         updateSelectionMode();
         mWidgetManager.popBackHandler(mSelectModeBackHandler);
     }
@@ -64,7 +64,11 @@ import org.mozilla.vrbrowser.utils.UrlUtils;
 import org.mozilla.vrbrowser.utils.ViewUtils;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
@@ -133,6 +137,9 @@ public class WindowWidget extends UIWidget implements SessionChangeListener,
     private PromptDelegate mPromptDelegate;
     private Executor mUIThreadExecutor;
     private WindowViewModel mViewModel;
+    // Titles already recorded for the entries of each session history, so only changes are written.
+    // Only the entries of the latest history list are kept.
+    private final WeakHashMap<GeckoSession, HashMap<String, String>> mObservedTitles = new WeakHashMap<>();
 
     public interface WindowListener {
         default void onFocusRequest(@NonNull WindowWidget aWindow) {}
@@ -1644,9 +1651,18 @@ public class WindowWidget extends UIWidget implements SessionChangeListener,
     @Override
     public void onHistoryStateChange(@NonNull GeckoSession geckoSession, @NonNull HistoryList historyList) {
         if (!mSession.isPrivateMode()) {
+            HashMap<String, String> previousTitles = mObservedTitles.get(geckoSession);
+            HashMap<String, String> observedTitles = new HashMap<>();
+            Map<String, PageObservation> observations = new HashMap<>();
             for (HistoryItem item : historyList) {
-                SessionStore.get().getHistoryStore().recordObservation(item.getUri(), new PageObservation(item.getTitle()));
+                String title = item.getTitle();
+                if (previousTitles == null || !previousTitles.containsKey(item.getUri()) || !Objects.equals(previousTitles.get(item.getUri()), title)) {
+                    observations.put(item.getUri(), new PageObservation(title));
+                }
+                observedTitles.put(item.getUri(), title);
             }
+            mObservedTitles.put(geckoSession, observedTitles);
+            SessionStore.get().getHistoryStore().recordObservations(observations);
         }
     }
 
@@ -1704,6 +1720,12 @@ public class WindowWidget extends UIWidget implements SessionChangeListener,
 
         SessionStore.get().getHistoryStore().recordVisit(url, new PageVisit(visitType, redirectSource));
         SessionStore.get().getHistoryStore().recordObservation(url, new PageObservation(url));
+        // The url replaces the stored title, so the real one must be recorded again on the next
+        // history state change.
+        HashMap<String, String> observedTitles = mObservedTitles.get(geckoSession);
+        if (observedTitles != null) {
+            observedTitles.remove(url);
+        }
 
         return GeckoResult.fromValue(true);
     }
@@ -1,6 +1,7 @@
 package org.mozilla.vrbrowser.ui.widgets;
 
 import android.content.Context;
+import android.util.AtomicFile;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -10,6 +11,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 
+import org.mozilla.gecko.util.ThreadUtils;
 import org.mozilla.geckoview.GeckoSession;
 import org.mozilla.vrbrowser.R;
 import org.mozilla.vrbrowser.VRBrowserApplication;
@@ -29,16 +31,23 @@ import org.mozilla.vrbrowser.utils.ConnectivityReceiver;
 import org.mozilla.vrbrowser.utils.SystemUtils;
 import org.mozilla.vrbrowser.utils.UrlUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import mozilla.components.concept.sync.AccountObserver;
@@ -54,13 +63,18 @@ public class Windows implements TrayListener, TopBarWidget.Delegate, TitleBarWid
 
     private static final String LOGTAG = SystemUtils.createLogtag(Windows.class);
 
-    private static final String WINDOWS_SAVE_FILENAME = "windows_state.json";
+    private static final String WINDOWS_SAVE_FILENAME = "windows_state.bin";
+    // Previous JSON based format, only read to migrate the state of older versions.
+    private static final String LEGACY_WINDOWS_SAVE_FILENAME = "windows_state.json";
+    static final int WINDOWS_STATE_MAGIC = 0x46585257;
+    private static final int WINDOWS_STATE_VERSION = 1;
+    private static final long SAVE_STATE_INTERVAL = 60000; // ms
 
     private static final int TAB_ADDED_NOTIFICATION_ID = 0;
     private static final int TAB_SENT_NOTIFICATION_ID = 1;
     private static final int BOOKMARK_ADDED_NOTIFICATION_ID = 2;
 
-    class WindowState {
+    static class WindowState {
         WindowPlacement placement;
         int textureWidth;
         int textureHeight;
@@ -93,13 +107,87 @@ public class Windows implements TrayListener, TopBarWidget.Delegate, TitleBarWid
                 panelType = PanelType.NONE;
             }
         }
+
+        void writeTo(DataOutputStream aOut) throws IOException {
+            writeEnum(aOut, placement);
+            aOut.writeInt(textureWidth);
+            aOut.writeInt(textureHeight);
+            aOut.writeFloat(worldWidth);
+            aOut.writeInt(tabIndex);
+            writeEnum(aOut, panelType);
+        }
+
+        void readFrom(DataInputStream aIn) throws IOException {
+            placement = readEnum(aIn, WindowPlacement.class);
+            textureWidth = aIn.readInt();
+            textureHeight = aIn.readInt();
+            worldWidth = aIn.readFloat();
+            tabIndex = aIn.readInt();
+            panelType = readEnum(aIn, PanelType.class);
+        }
     }
 
-    class WindowsState {
+    static class WindowsState {
         WindowPlacement focusedWindowPlacement = WindowPlacement.FRONT;
         ArrayList<WindowState> regularWindowsState = new ArrayList<>();
         ArrayList<SessionState> tabs = new ArrayList<>();
         boolean privateMode = false;
+
+        void writeTo(DataOutputStream aOut) throws IOException {
+            aOut.writeInt(WINDOWS_STATE_MAGIC);
+            aOut.writeInt(WINDOWS_STATE_VERSION);
+            aOut.writeBoolean(privateMode);
+            writeEnum(aOut, focusedWindowPlacement);
+            aOut.writeInt(regularWindowsState.size());
+            for (WindowState windowState : regularWindowsState) {
+                windowState.writeTo(aOut);
+            }
+            aOut.writeInt(tabs.size());
+            for (SessionState tab : tabs) {
+                tab.writeTo(aOut);
+            }
+        }
+
+        void readFrom(DataInputStream aIn) throws IOException {
+            if (aIn.readInt() != WINDOWS_STATE_MAGIC) {
+                throw new IOException("Invalid windows state file");
+            }
+            int version = aIn.readInt();
+            if (version != WINDOWS_STATE_VERSION) {
+                throw new IOException("Unsupported windows state version: " + version);
+            }
+            privateMode = aIn.readBoolean();
+            focusedWindowPlacement = readEnum(aIn, WindowPlacement.class);
+            if (focusedWindowPlacement == null) {
+                focusedWindowPlacement = WindowPlacement.FRONT;
+            }
+            int windowCount = aIn.readInt();
+            for (int i = 0; i < windowCount; i++) {
+                WindowState windowState = new WindowState();
+                windowState.readFrom(aIn);
+                regularWindowsState.add(windowState);
+            }
+            int tabCount = aIn.readInt();
+            for (int i = 0; i < tabCount; i++) {
+                tabs.add(SessionState.readFrom(aIn));
+            }
+        }
+    }
+
+    // Enums are stored by name so adding or reordering constants doesn't break restores.
+    // Unknown values are read as null, like the legacy JSON state did.
+    private static void writeEnum(@NonNull DataOutputStream aOut, @Nullable Enum<?> aValue) throws IOException {
+        aOut.writeUTF(aValue != null ? aValue.name() : "");
+    }
+
+    private static @Nullable <T extends Enum<T>> T readEnum(@NonNull DataInputStream aIn, @NonNull Class<T> aType) throws IOException {
+        String name = aIn.readUTF();
+        for (T value : aType.getEnumConstants()) {
+            if (value.name().equals(name)) {
+                return value;
+            }
+        }
+        return null;
     }
 
     private Context mContext;
@@ -121,8 +209,13 @@ public class Windows implements TrayListener, TopBarWidget.Delegate, TitleBarWid
     private Accounts mAccounts;
     private Services mServices;
     private PromptDialogWidget mNoInternetDialog;
+    private Executor mStateWriter;
+    private final Runnable mSaveStateCheckpoint = () -> {
+        saveState();
+        scheduleSaveStateCheckpoint();
+    };
 
-    private enum PanelType {
+    enum PanelType {
         NONE,
         BOOKMARKS,
         HISTORY
@@ -165,57 +258,106 @@ public class Windows implements TrayListener, TopBarWidget.Delegate, TitleBarWid
         mAccounts.addAccountListener(mAccountObserver);
         mServices = ((VRBrowserApplication)mContext.getApplicationContext()).getServices();
         mServices.setTabReceivedDelegate(this);
+        mStateWriter = ((VRBrowserApplication)mContext.getApplicationContext()).getExecutors().diskIO();
 
         mWidgetManager.addConnectivityListener(mConnectivityDelegate);
 
         restoreWindows();
     }
 
+    /**
+     * Captures the current windows and tabs state and writes it to disk in the background.
+     * Gecko session states are only re-serialized when they have changed since the previous save.
+     */
     public void saveState() {
-        File file = new File(mContext.getFilesDir(), WINDOWS_SAVE_FILENAME);
-        try (Writer writer = new FileWriter(file)) {
-            WindowsState state = new WindowsState();
-            state.privateMode = mPrivateMode;
-            state.focusedWindowPlacement = mFocusedWindow.isFullScreen() ?  mFocusedWindow.getWindowPlacementBeforeFullscreen() : mFocusedWindow.getWindowPlacement();
-            ArrayList<Session> sessions = SessionStore.get().getSortedSessions(false);
-            state.tabs = sessions.stream().map(Session::getSessionState).collect(Collectors.toCollection(ArrayList::new));
-            for (WindowWidget window : mRegularWindows) {
-                WindowState windowState = new WindowState();
-                windowState.load(window, state, sessions.indexOf(window.getSession()));
-                state.regularWindowsState.add(windowState);
-            }
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(state, writer);
+        if (mFocusedWindow == null) {
+            return;
+        }
+        WindowsState state = new WindowsState();
+        state.privateMode = mPrivateMode;
+        state.focusedWindowPlacement = mFocusedWindow.isFullScreen() ?  mFocusedWindow.getWindowPlacementBeforeFullscreen() : mFocusedWindow.getWindowPlacement();
+        ArrayList<Session> sessions = SessionStore.get().getSortedSessions(false);
+        state.tabs = sessions.stream().map(session -> session.getSessionState().snapshot()).collect(Collectors.toCollection(ArrayList::new));
+        for (WindowWidget window : mRegularWindows) {
+            WindowState windowState = new WindowState();
+            windowState.load(window, state, sessions.indexOf(window.getSession()));
+            state.regularWindowsState.add(windowState);
+        }
+
+        mStateWriter.execute(() -> writeState(state));
+    }
+
+    private void writeState(@NonNull WindowsState aState) {
+        AtomicFile file = new AtomicFile(new File(mContext.getFilesDir(), WINDOWS_SAVE_FILENAME));
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            aState.writeTo(out);
+            out.flush();
+            file.finishWrite(stream);
 
             Log.d(LOGTAG, "Windows state saved");
 
-        } catch (IOException e) {
+        } catch (Exception e) {
             Log.e(LOGTAG, "Error saving windows state: " + e.getLocalizedMessage());
-            file.delete();
+            if (stream != null) {
+                file.failWrite(stream);
+            }
         }
     }
 
+    private void scheduleSaveStateCheckpoint() {
+        ThreadUtils.removeCallbacksFromUiThread(mSaveStateCheckpoint);
+        ThreadUtils.postDelayedToUiThread(mSaveStateCheckpoint, SAVE_STATE_INTERVAL);
+    }
+
     private WindowsState restoreState() {
         WindowsState restored = null;
 
-        File file = new File(mContext.getFilesDir(), WINDOWS_SAVE_FILENAME);
-        try (Reader reader = new FileReader(file)) {
-            Gson gson = new GsonBuilder().create();
-            Type type = new TypeToken<WindowsState>() {}.getType();
-            restored = gson.fromJson(reader, type);
+        AtomicFile file = new AtomicFile(new File(mContext.getFilesDir(), WINDOWS_SAVE_FILENAME));
+        File legacyFile = new File(mContext.getFilesDir(), LEGACY_WINDOWS_SAVE_FILENAME);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+            WindowsState state = new WindowsState();
+            state.readFrom(in);
+            restored = state;
 
             Log.d(LOGTAG, "Windows state restored");
 
+        } catch (FileNotFoundException e) {
+            restored = restoreLegacyState(legacyFile);
+
         } catch (Exception e) {
             Log.w(LOGTAG, "Error restoring windows state: " + e.getLocalizedMessage());
 
         } finally {
             file.delete();
+            legacyFile.delete();
         }
 
         return restored;
     }
 
+    @Nullable
+    private WindowsState restoreLegacyState(@NonNull File aFile) {
+        if (!aFile.exists()) {
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(aFile), StandardCharsets.UTF_8)) {
+            Gson gson = new GsonBuilder().create();
+            Type type = new TypeToken<WindowsState>() {}.getType();
+            WindowsState restored = gson.fromJson(reader, type);
+
+            Log.d(LOGTAG, "Legacy windows state restored");
+            return restored;
+
+        } catch (Exception e) {
+            Log.w(LOGTAG, "Error restoring legacy windows state: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
     public void setDelegate(Delegate aDelegate) {
         mDelegate = aDelegate;
     }
@@ -448,17 +590,20 @@ public class Windows implements TrayListener, TopBarWidget.Delegate, TitleBarWid
     public void onPause() {
         mIsPaused = true;
 
+        ThreadUtils.removeCallbacksFromUiThread(mSaveStateCheckpoint);
         saveState();
     }
 
     public void onResume() {
         mIsPaused = false;
+        scheduleSaveStateCheckpoint();
 
         TelemetryWrapper.resetOpenedWindowsCount(mRegularWindows.size(), false);
         TelemetryWrapper.resetOpenedWindowsCount(mPrivateWindows.size(), true);
     }
 
     public void onDestroy() {
+        ThreadUtils.removeCallbacksFromUiThread(mSaveStateCheckpoint);
         mDelegate = null;
         for (WindowWidget window: mRegularWindows) {
             window.close();
@@ -654,7 +799,7 @@ public class Windows implements TrayListener, TopBarWidget.Delegate, TitleBarWid
             }
             mPrivateMode = false;
             for (WindowState windowState : windowsState.regularWindowsState) {
-                if (windowState.tabIndex >= 0 && windowState.tabIndex < restoredSessions.size()) {
+                if (windowState.placement != null && windowState.tabIndex >= 0 && windowState.tabIndex < restoredSessions.size()) {
                     addRestoredWindow(windowState, restoredSessions.get(windowState.tabIndex));
                 }
             }
@@ -2,8 +2,8 @@ package org.mozilla.vrbrowser.utils;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.SurfaceTexture;
+import android.os.Build;
 import android.util.Log;
 import android.util.LruCache;
 import android.view.Surface;
@@ -13,21 +13,46 @@ import androidx.annotation.Nullable;
 
 import com.jakewharton.disklrucache.DiskLruCache;
 
+import org.mozilla.gecko.util.ThreadUtils;
 import org.mozilla.vrbrowser.VRBrowserApplication;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class BitmapCache {
     private Context mContext;
-    private LruCache<String, Bitmap> mMemoryCache;
-    private DiskLruCache mDiskCache;
+    private MemoryTier mMemoryCache;
+    private MemoryTier mThumbnailCache;
+    private SnapshotCodec mCodec;
+    private boolean mHardwareBitmapsEnabled;
+    private volatile DiskLruCache mDiskCache;
+    private final CompletableFuture<Void> mDiskCacheReady = new CompletableFuture<>();
     private Executor mIOExecutor;
+    private Executor mReadExecutor;
     private Executor mMainThreadExecutor;
-    private final Object mLock = new Object();
+    // DiskLruCache is thread safe, so reads and writes only hold the shared lock and can run concurrently.
+    // The exclusive lock is only taken to close the cache.
+    private final ReentrantReadWriteLock mDiskLock = new ReentrantReadWriteLock();
+    // Snapshots waiting to be written to disk, keyed by session id. Superseded captures are dropped.
+    private final LinkedHashMap<String, Bitmap> mPendingWrites = new LinkedHashMap<>();
+    private final Runnable mFlushRunnable = this::flushPendingWrites;
+    private long mFirstPendingWriteTime;
+    private final AtomicInteger mDroppedWrites = new AtomicInteger();
+    private final AtomicInteger mCommittedWrites = new AtomicInteger();
     private static final int DISK_CACHE_SIZE = 1024 * 1024 * 100; // 100MB
+    private static final long WRITE_BEHIND_DELAY = 1500; // ms
+    private static final long WRITE_BEHIND_MAX_DELAY = 10000; // ms
+    public static final int THUMBNAIL_MAX_WIDTH = 256;
+    public static final int THUMBNAIL_MAX_HEIGHT = 256;
     private static final String LOGTAG = SystemUtils.createLogtag(BitmapCache.class);
     private SurfaceTexture mCaptureSurfaceTexture;
     private Surface mCaptureSurface;
@@ -37,10 +62,28 @@ public class BitmapCache {
         return ((VRBrowserApplication)aContext.getApplicationContext()).getBitmapCache();
     }
 
-    public BitmapCache(@NonNull Context aContext, @NonNull Executor aIOExecutor, @NonNull Executor aMainThreadExecutor) {
+    public BitmapCache(@NonNull Context aContext, @NonNull Executor aIOExecutor, @NonNull Executor aReadExecutor, @NonNull Executor aMainThreadExecutor) {
         mContext = aContext;
         mIOExecutor = aIOExecutor;
+        mReadExecutor = aReadExecutor;
         mMainThreadExecutor = aMainThreadExecutor;
+        mCodec = SnapshotCodec.WEBP;
+    }
+
+    public void setCodec(@NonNull SnapshotCodec aCodec) {
+        mCodec = aCodec;
+    }
+
+    public @NonNull SnapshotCodec getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Allows thumbnails decoded from disk to be stored as HARDWARE bitmaps. Only safe when the
+     * UI is drawn with a hardware accelerated canvas.
+     */
+    public void setHardwareBitmapsEnabled(boolean aEnabled) {
+        mHardwareBitmapsEnabled = aEnabled && SnapshotCodec.supportsHardwareBitmaps();
     }
 
     public void onCreate() {
@@ -51,16 +94,10 @@ public class BitmapCache {
     void initMemoryCache() {
         // Get  available VM memory in KB.
         final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
-        // Use 1/8th of the available memory for this memory cache.
-        final int cacheSize = maxMemory / 8;
-
-        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                // Use KB as the size of the item
-                return bitmap.getByteCount() / 1024;
-            }
-        };
+        // Use 1/16th of the available memory for full size snapshots and 1/32th for the
+        // downsampled thumbnails used by the tabs tray.
+        mMemoryCache = new MemoryTier("snapshots", maxMemory / 16);
+        mThumbnailCache = new MemoryTier("thumbnails", maxMemory / 32);
     }
 
     void initDiskCache() {
@@ -72,71 +109,191 @@ public class BitmapCache {
             catch (Exception ex) {
                 Log.e(LOGTAG, "Failed to initialize DiskLruCache:" + ex.getMessage());
             }
+            mDiskCacheReady.complete(null);
         });
     }
 
     public void addBitmap(@NonNull String aKey, @NonNull Bitmap aBitmap) {
         mMemoryCache.put(aKey, aBitmap);
+        mThumbnailCache.remove(aKey);
+
+        boolean flushNow;
+        synchronized (mPendingWrites) {
+            long now = System.currentTimeMillis();
+            if (mPendingWrites.isEmpty()) {
+                mFirstPendingWriteTime = now;
+            }
+            if (mPendingWrites.remove(aKey) != null) {
+                mDroppedWrites.incrementAndGet();
+            }
+            mPendingWrites.put(aKey, aBitmap);
+            flushNow = now - mFirstPendingWriteTime >= WRITE_BEHIND_MAX_DELAY;
+        }
+
+        ThreadUtils.removeCallbacksFromUiThread(mFlushRunnable);
+        if (flushNow) {
+            flushPendingWrites();
+        } else {
+            ThreadUtils.postDelayedToUiThread(mFlushRunnable, WRITE_BEHIND_DELAY);
+        }
+    }
+
+    /**
+     * Writes all the pending snapshots to disk in a single batch.
+     */
+    public void flushPendingWrites() {
+        ThreadUtils.removeCallbacksFromUiThread(mFlushRunnable);
+        final Map<String, Bitmap> writes;
+        synchronized (mPendingWrites) {
+            if (mPendingWrites.isEmpty()) {
+                return;
+            }
+            writes = new LinkedHashMap<>(mPendingWrites);
+        }
+
         runIO(() -> {
-            DiskLruCache.Editor editor = null;
-            try {
-                editor = mDiskCache.edit(aKey);
-                if (editor != null) {
-                    aBitmap.compress(Bitmap.CompressFormat.PNG, 80, editor.newOutputStream(0));
-                    editor.commit();
+            for (Map.Entry<String, Bitmap> entry: writes.entrySet()) {
+                synchronized (mPendingWrites) {
+                    if (mPendingWrites.get(entry.getKey()) != entry.getValue()) {
+                        // Superseded or removed since the batch was created.
+                        continue;
+                    }
+                }
+                writeBitmap(entry.getKey(), entry.getValue());
+                synchronized (mPendingWrites) {
+                    mPendingWrites.remove(entry.getKey(), entry.getValue());
                 }
             }
-            catch (Exception ex) {
-                Log.e(LOGTAG, "Failed to add Bitmap to DiskLruCache:" + ex.getMessage());
-                if (editor != null) {
-                    try {
-                        editor.abort();
-                    }
-                    catch (Exception e) {
-                        e.printStackTrace();
-                    }
+            try {
+                mDiskCache.flush();
+            } catch (IOException ex) {
+                Log.e(LOGTAG, "Failed to flush DiskLruCache:" + ex.getMessage());
+            }
+        }, () -> {
+            // There is no disk cache to write to, so don't keep the snapshots around.
+            synchronized (mPendingWrites) {
+                for (Map.Entry<String, Bitmap> entry: writes.entrySet()) {
+                    mPendingWrites.remove(entry.getKey(), entry.getValue());
                 }
             }
         });
     }
 
+    private void writeBitmap(@NonNull String aKey, @NonNull Bitmap aBitmap) {
+        Bitmap thumbnail = createThumbnail(aBitmap);
+        if (thumbnail != null) {
+            mThumbnailCache.put(aKey, thumbnail);
+        }
+
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = mDiskCache.edit(aKey);
+            if (editor != null) {
+                mCodec.encode(aBitmap, editor.newOutputStream(0));
+                editor.commit();
+                mCommittedWrites.incrementAndGet();
+            }
+        }
+        catch (Exception ex) {
+            Log.e(LOGTAG, "Failed to add Bitmap to DiskLruCache:" + ex.getMessage());
+            if (editor != null) {
+                try {
+                    editor.abort();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private @Nullable Bitmap getPendingWrite(@NonNull String aKey) {
+        synchronized (mPendingWrites) {
+            return mPendingWrites.get(aKey);
+        }
+    }
+
     public @NonNull CompletableFuture<Bitmap> getBitmap(@NonNull String aKey) {
         Bitmap cached = mMemoryCache.get(aKey);
+        if (cached == null) {
+            cached = getPendingWrite(aKey);
+        }
         if (cached != null) {
             return CompletableFuture.completedFuture(cached);
         } else {
             CompletableFuture<Bitmap> result = new CompletableFuture<>();
-            runIO(() -> {
-                try (DiskLruCache.Snapshot snapshot = mDiskCache.get(aKey)){
-                    if (snapshot != null) {
-                        Bitmap bitmap = BitmapFactory.decodeStream(snapshot.getInputStream(0));
-                        if (bitmap != null) {
-                            mMainThreadExecutor.execute(() -> {
-                                if (mMemoryCache.get(aKey) == null) {
-                                    // Do not update cache if it already contains a value
-                                    // A tab could have saved a new image while we were loading the cached disk image.
-                                    mMemoryCache.put(aKey, bitmap);
-                                }
-                                result.complete(bitmap);
-                            });
-
-                            return;
+            runRead(() -> {
+                Bitmap bitmap = readBitmap(aKey, 0, 0, null);
+                if (bitmap != null) {
+                    mMainThreadExecutor.execute(() -> {
+                        if (mMemoryCache.get(aKey) == null) {
+                            // Do not update cache if it already contains a value
+                            // A tab could have saved a new image while we were loading the cached disk image.
+                            mMemoryCache.put(aKey, bitmap);
                         }
-                    }
-                }
-                catch (Exception ex) {
-                    Log.e(LOGTAG, "Failed to get Bitmap from DiskLruCache:" + ex.getMessage());
+                        result.complete(bitmap);
+                    });
+                    return;
                 }
 
                 mMainThreadExecutor.execute(() -> result.complete(null));
 
-            });
+            }, () -> mMainThreadExecutor.execute(() -> result.complete(null)));
             return result;
         }
     }
 
+    /**
+     * Returns a downsampled version of the snapshot, suitable for small previews like the tabs tray.
+     * Thumbnails are kept in a separate memory tier so they don't evict full size snapshots.
+     */
+    public @NonNull CompletableFuture<Bitmap> getThumbnail(@NonNull String aKey) {
+        Bitmap cached = mThumbnailCache.get(aKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Bitmap> result = new CompletableFuture<>();
+        Bitmap full = mMemoryCache.get(aKey);
+        if (full == null) {
+            full = getPendingWrite(aKey);
+        }
+        final Bitmap source = full;
+        runRead(() -> {
+            Bitmap thumbnail;
+            if (source != null) {
+                thumbnail = createThumbnail(source);
+            } else {
+                Bitmap.Config config = mHardwareBitmapsEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ?
+                        Bitmap.Config.HARDWARE : Bitmap.Config.RGB_565;
+                thumbnail = readBitmap(aKey, THUMBNAIL_MAX_WIDTH, THUMBNAIL_MAX_HEIGHT, config);
+            }
+            completeThumbnail(aKey, thumbnail, result);
+        }, () -> completeThumbnail(aKey, source != null ? createThumbnail(source) : null, result));
+        return result;
+    }
+
+    private void completeThumbnail(@NonNull String aKey, @Nullable Bitmap aThumbnail, @NonNull CompletableFuture<Bitmap> aResult) {
+        mMainThreadExecutor.execute(() -> {
+            Bitmap current = mThumbnailCache.get(aKey);
+            if (current != null) {
+                // A newer snapshot was captured while we were loading this one.
+                aResult.complete(current);
+                return;
+            }
+            if (aThumbnail != null) {
+                mThumbnailCache.put(aKey, aThumbnail);
+            }
+            aResult.complete(aThumbnail);
+        });
+    }
+
     public void removeBitmap(@NonNull String aKey) {
         mMemoryCache.remove(aKey);
+        mThumbnailCache.remove(aKey);
+        synchronized (mPendingWrites) {
+            mPendingWrites.remove(aKey);
+        }
         runIO(() -> {
             try {
                 mDiskCache.remove(aKey);
@@ -150,14 +307,88 @@ public class BitmapCache {
         return mMemoryCache.get(aKey) != null;
     }
 
+    public @NonNull String getStats() {
+        return mMemoryCache.getStats() + "\n" + mThumbnailCache.getStats() +
+                String.format(Locale.US, "\ndisk: committed=%d dropped=%d", mCommittedWrites.get(), mDroppedWrites.get());
+    }
+
+    private @Nullable Bitmap readBitmap(@NonNull String aKey, int aMaxWidth, int aMaxHeight, @Nullable Bitmap.Config aConfig) {
+        try (DiskLruCache.Snapshot snapshot = mDiskCache.get(aKey)) {
+            if (snapshot != null) {
+                byte[] data = readFully(snapshot.getInputStream(0), (int) snapshot.getLength(0));
+                return mCodec.decode(data, aMaxWidth, aMaxHeight, aConfig);
+            }
+        }
+        catch (Exception ex) {
+            Log.e(LOGTAG, "Failed to get Bitmap from DiskLruCache:" + ex.getMessage());
+        }
+        return null;
+    }
+
+    private static byte[] readFully(@NonNull InputStream aStream, int aSizeHint) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(aSizeHint, 1024));
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = aStream.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private @Nullable Bitmap createThumbnail(@NonNull Bitmap aBitmap) {
+        int w = aBitmap.getWidth();
+        int h = aBitmap.getHeight();
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+        float scale = Math.min(1.0f, Math.min((float) THUMBNAIL_MAX_WIDTH / w, (float) THUMBNAIL_MAX_HEIGHT / h));
+        try {
+            Bitmap scaled = Bitmap.createScaledBitmap(aBitmap, Math.max(1, (int) (w * scale)), Math.max(1, (int) (h * scale)), true);
+            Bitmap thumbnail = scaled.copy(Bitmap.Config.RGB_565, false);
+            if (scaled != aBitmap && scaled != thumbnail) {
+                scaled.recycle();
+            }
+            return thumbnail;
+        }
+        catch (Exception ex) {
+            Log.e(LOGTAG, "Failed to create thumbnail:" + ex.getMessage());
+            return null;
+        }
+    }
+
     private void runIO(Runnable aRunnable) {
-        mIOExecutor.execute(() -> {
+        runIO(aRunnable, null);
+    }
+
+    /**
+     * Runs a disk operation on the IO executor, or the fallback if the disk cache failed to open
+     * or is closed.
+     */
+    private void runIO(Runnable aRunnable, @Nullable Runnable aFallback) {
+        mIOExecutor.execute(() -> runLocked(aRunnable, aFallback));
+    }
+
+    /**
+     * Runs a disk read on the read executor so it doesn't wait for pending snapshot encodes
+     * queued on the single threaded IO executor. The fallback runs instead if there is no disk cache.
+     */
+    private void runRead(Runnable aRunnable, Runnable aFallback) {
+        mDiskCacheReady.thenRunAsync(() -> runLocked(aRunnable, aFallback), mReadExecutor);
+    }
+
+    private void runLocked(Runnable aRunnable, @Nullable Runnable aFallback) {
+        mDiskLock.readLock().lock();
+        try {
             if (mDiskCache != null) {
-                synchronized (mLock) {
-                    aRunnable.run();
-                }
+                aRunnable.run();
+                return;
             }
-        });
+        } finally {
+            mDiskLock.readLock().unlock();
+        }
+        if (aFallback != null) {
+            aFallback.run();
+        }
     }
 
     public CompletableFuture<Bitmap> scaleBitmap(Bitmap aBitmap, int aMaxWidth, int aMaxHeight) {
@@ -181,7 +412,7 @@ public class BitmapCache {
         final int scaleH = h;
         CompletableFuture<Bitmap> result = new CompletableFuture<>();
 
-        runIO(() -> {
+        mReadExecutor.execute(() -> {
             Bitmap scaled = Bitmap.createScaledBitmap(aBitmap, scaledW, scaleH, true);
             if (scaled != null && scaled != aBitmap) {
                 aBitmap.recycle();
@@ -212,15 +443,25 @@ public class BitmapCache {
         mCapturedAcquired = false;
     }
 
+    public void onPause() {
+        flushPendingWrites();
+    }
+
     public void onDestroy() {
+        flushPendingWrites();
         if (mDiskCache != null) {
-            runIO(() -> {
+            mIOExecutor.execute(() -> {
+                mDiskLock.writeLock().lock();
                 try {
-                    mDiskCache.close();
+                    if (mDiskCache != null) {
+                        mDiskCache.close();
+                    }
                 } catch (IOException ex) {
                     Log.e(LOGTAG, "Failed to close DiskLruCache:" + ex.getMessage());
+                } finally {
+                    mDiskCache = null;
+                    mDiskLock.writeLock().unlock();
                 }
-                mDiskCache = null;
             });
         }
         if (mCaptureSurface != null) {
@@ -232,4 +473,25 @@ public class BitmapCache {
             mCaptureSurfaceTexture = null;
         }
     }
+
+    private static class MemoryTier extends LruCache<String, Bitmap> {
+        private final String mName;
+
+        MemoryTier(@NonNull String aName, int aMaxSizeKB) {
+            super(Math.max(aMaxSizeKB, 1));
+            mName = aName;
+        }
+
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            // Use KB as the size of the item
+            return bitmap.getAllocationByteCount() / 1024;
+        }
+
+        @NonNull
+        String getStats() {
+            return String.format(Locale.US, "%s: size=%dKB/%dKB count=%d hits=%d misses=%d evictions=%d",
+                    mName, size(), maxSize(), snapshot().size(), hitCount(), missCount(), evictionCount());
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package org.mozilla.vrbrowser.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Bloom filter over strings. {@link #mightContain(String)} never returns false for a string that
+ * was added, but it may return true for strings that were not.
+ */
+public class BloomFilter {
+    private final long[] mBits;
+    private final int mBitCount;
+    private final int mHashCount;
+
+    /**
+     * @param aExpectedEntries Number of entries the filter is sized for.
+     * @param aFalsePositiveRate Desired false positive rate once the expected entries are added.
+     */
+    public BloomFilter(int aExpectedEntries, double aFalsePositiveRate) {
+        int entries = Math.max(aExpectedEntries, 1);
+        long bits = (long) Math.ceil(-entries * Math.log(aFalsePositiveRate) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(64, Math.min(bits, Integer.MAX_VALUE - 63));
+        mBits = new long[(int) ((bits + 63) / 64)];
+        mBitCount = mBits.length * 64;
+        mHashCount = Math.max(1, (int) Math.round((double) mBitCount / entries * Math.log(2)));
+    }
+
+    public synchronized void add(@NonNull String aValue) {
+        long hash = hash(aValue);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitCount;
+            mBits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public synchronized boolean mightContain(@NonNull String aValue) {
+        long hash = hash(aValue);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitCount;
+            if ((mBits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64 bit FNV-1a, split in two halves for double hashing.
+    private static long hash(@NonNull String aValue) {
+        long hash = 0xcbf29ce484222325L;
+        int length = aValue.length();
+        for (int i = 0; i < length; i++) {
+            hash ^= aValue.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,91 @@
+package org.mozilla.vrbrowser.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.OutputStream;
+
+/**
+ * Describes how tab snapshots are encoded on disk and decoded back into memory.
+ * BitmapFactory detects the stored format, so snapshots written by a previous codec
+ * can still be decoded after the codec changes.
+ */
+public class SnapshotCodec {
+    public static final SnapshotCodec PNG = new SnapshotCodec(Bitmap.CompressFormat.PNG, 100, Bitmap.Config.ARGB_8888);
+    public static final SnapshotCodec WEBP = new SnapshotCodec(getLossyWebpFormat(), 80, Bitmap.Config.ARGB_8888);
+    public static final SnapshotCodec WEBP_RGB_565 = new SnapshotCodec(getLossyWebpFormat(), 70, Bitmap.Config.RGB_565);
+
+    private static final int API_LEVEL_R = 30;
+
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final Bitmap.Config mDecodeConfig;
+
+    public SnapshotCodec(@NonNull Bitmap.CompressFormat aFormat, int aQuality, @NonNull Bitmap.Config aDecodeConfig) {
+        mFormat = aFormat;
+        mQuality = aQuality;
+        mDecodeConfig = aDecodeConfig;
+    }
+
+    public boolean encode(@NonNull Bitmap aBitmap, @NonNull OutputStream aStream) {
+        return aBitmap.compress(mFormat, mQuality, aStream);
+    }
+
+    /**
+     * Decodes a snapshot, subsampling it so that it is not much larger than the requested size.
+     * @param aData Encoded snapshot data.
+     * @param aMaxWidth Maximum desired width, 0 to decode at full size.
+     * @param aMaxHeight Maximum desired height, 0 to decode at full size.
+     * @param aConfig Bitmap config to decode to, null to use the codec default.
+     * @return the decoded Bitmap or null if the data could not be decoded.
+     */
+    public @Nullable Bitmap decode(@NonNull byte[] aData, int aMaxWidth, int aMaxHeight, @Nullable Bitmap.Config aConfig) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (aMaxWidth > 0 && aMaxHeight > 0) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(aData, 0, aData.length, options);
+            options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, aMaxWidth, aMaxHeight);
+            options.inJustDecodeBounds = false;
+        }
+        options.inPreferredConfig = aConfig != null ? aConfig : mDecodeConfig;
+        return BitmapFactory.decodeByteArray(aData, 0, aData.length, options);
+    }
+
+    public Bitmap.Config getDecodeConfig() {
+        return mDecodeConfig;
+    }
+
+    // WEBP is deprecated from API 30 in favor of WEBP_LOSSY, which isn't in the SDK we compile
+    // against yet, so it's looked up by name.
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat getLossyWebpFormat() {
+        if (Build.VERSION.SDK_INT >= API_LEVEL_R) {
+            try {
+                return Bitmap.CompressFormat.valueOf("WEBP_LOSSY");
+
+            } catch (IllegalArgumentException e) {
+                // Fall back to the deprecated format below.
+            }
+        }
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    public static boolean supportsHardwareBitmaps() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    static int computeSampleSize(int aWidth, int aHeight, int aMaxWidth, int aMaxHeight) {
+        int sampleSize = 1;
+        if (aWidth <= 0 || aHeight <= 0) {
+            return sampleSize;
+        }
+        while ((aWidth / (sampleSize * 2)) >= aMaxWidth && (aHeight / (sampleSize * 2)) >= aMaxHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
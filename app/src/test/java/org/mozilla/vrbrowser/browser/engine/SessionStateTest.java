@@ -0,0 +1,74 @@
+package org.mozilla.vrbrowser.browser.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SessionStateTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        SessionState state = new SessionState();
+        state.mCanGoBack = true;
+        state.mUri = "https://www.mozilla.org/";
+        state.mPreviousUri = null;
+        state.mTitle = "Mozilla ☃";
+        state.mLastUse = 42;
+        state.mRegion = "US";
+        state.mParentId = "parent";
+        state.mSettings = new SessionSettings.Builder()
+                .withPrivateBrowsing(false)
+                .withTrackingProteccion(true)
+                .withSuspendMediaWhenInactive(true)
+                .withUserAgent(1)
+                .withViewport(2)
+                .withServo(false)
+                .withUserAgentOverride("Agent/1.0")
+                .build();
+
+        SessionState restored = roundTrip(state);
+
+        assertTrue(restored.mCanGoBack);
+        assertFalse(restored.mCanGoForward);
+        assertEquals(state.mUri, restored.mUri);
+        assertNull(restored.mPreviousUri);
+        assertEquals(state.mTitle, restored.mTitle);
+        assertEquals(state.mLastUse, restored.mLastUse);
+        assertEquals(state.mRegion, restored.mRegion);
+        assertEquals(state.mId, restored.mId);
+        assertEquals(state.mParentId, restored.mParentId);
+        assertNotNull(restored.mSettings);
+        assertFalse(restored.mSettings.isPrivateBrowsingEnabled());
+        assertTrue(restored.mSettings.isTrackingProtectionEnabled());
+        assertTrue(restored.mSettings.isSuspendMediaWhenInactiveEnabled());
+        assertEquals(1, restored.mSettings.getUserAgentMode());
+        assertEquals(2, restored.mSettings.getViewportMode());
+        assertEquals("Agent/1.0", restored.mSettings.getUserAgentOverride());
+        assertNull(restored.getSerializedSessionState());
+    }
+
+    @Test
+    public void roundTripWithoutSettings() throws IOException {
+        SessionState state = new SessionState();
+
+        SessionState restored = roundTrip(state);
+
+        assertEquals(state.mId, restored.mId);
+        assertEquals("", restored.mUri);
+        assertNull(restored.mSettings);
+    }
+
+    private static SessionState roundTrip(SessionState aState) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        aState.writeTo(out);
+        out.flush();
+        return SessionState.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
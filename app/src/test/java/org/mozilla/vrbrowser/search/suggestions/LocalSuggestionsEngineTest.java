@@ -0,0 +1,240 @@
+package org.mozilla.vrbrowser.search.suggestions;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.vrbrowser.ui.widgets.SuggestionsWidget.SuggestionItem;
+import org.mozilla.vrbrowser.utils.SystemUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import mozilla.components.concept.storage.BookmarkNode;
+import mozilla.components.concept.storage.BookmarkNodeType;
+import mozilla.components.concept.storage.VisitInfo;
+import mozilla.components.concept.storage.VisitType;
+
+import static org.junit.Assert.*;
+
+public class LocalSuggestionsEngineTest {
+
+    private static final Executor DIRECT = Runnable::run;
+    private static final long NOW = 1000 * SystemUtils.ONE_DAY_MILLIS;
+
+    /**
+     * Engine reading the visits and bookmarks from lists, with builds and queries run on the
+     * calling thread.
+     */
+    private static class TestEngine extends LocalSuggestionsEngine {
+        final ArrayList<VisitInfo> visits = new ArrayList<>();
+        final ArrayList<BookmarkNode> bookmarks = new ArrayList<>();
+        int removalGeneration;
+        long lastSince = -1;
+
+        TestEngine() {
+            super(DIRECT, DIRECT);
+        }
+
+        @Override
+        int getRemovalGeneration() {
+            return removalGeneration;
+        }
+
+        @Override
+        CompletableFuture<List<VisitInfo>> getVisits(long aSince) {
+            lastSince = aSince;
+            ArrayList<VisitInfo> result = new ArrayList<>();
+            for (VisitInfo visit : visits) {
+                if (visit.getVisitTime() >= aSince) {
+                    result.add(visit);
+                }
+            }
+            return CompletableFuture.completedFuture(result);
+        }
+
+        @Override
+        CompletableFuture<List<BookmarkNode>> getBookmarks() {
+            return CompletableFuture.completedFuture(new ArrayList<>(bookmarks));
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return NOW;
+        }
+
+        void visit(String aUrl, String aTitle, int aDaysAgo, VisitType aType) {
+            visits.add(new VisitInfo(aUrl, aTitle, NOW - aDaysAgo * SystemUtils.ONE_DAY_MILLIS + visits.size(), aType));
+        }
+
+        void visit(String aUrl, String aTitle, int aDaysAgo) {
+            visit(aUrl, aTitle, aDaysAgo, VisitType.LINK);
+        }
+
+        void bookmark(String aUrl, String aTitle) {
+            bookmarks.add(new BookmarkNode(BookmarkNodeType.ITEM, "guid" + bookmarks.size(), null, null, aTitle, aUrl, null));
+        }
+
+        void update() {
+            onHistoryUpdated();
+            assertTrue(isReady());
+        }
+
+        List<SuggestionItem> query(String aQuery, int aLimit) throws Exception {
+            CompletableFuture<List<SuggestionItem>> result = getSuggestions(aQuery, aLimit);
+            assertTrue(result.isDone());
+            return result.get();
+        }
+    }
+
+    private TestEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mEngine = new TestEngine();
+    }
+
+    private static void assertUrls(List<SuggestionItem> aItems, String... aUrls) {
+        ArrayList<String> urls = new ArrayList<>();
+        for (SuggestionItem item : aItems) {
+            urls.add(item.url);
+        }
+        assertEquals(Arrays.asList(aUrls), urls);
+    }
+
+    @Test
+    public void notReadyBeforeFirstBuild() throws Exception {
+        mEngine.visit("https://mozilla.org", "Mozilla", 1);
+
+        assertTrue(mEngine.query("moz", 10).isEmpty());
+        assertTrue(mEngine.isReady());
+        assertEquals(1, mEngine.query("moz", 10).size());
+    }
+
+    @Test
+    public void frecencyBuckets() throws Exception {
+        mEngine.visit("https://c.com", "Recipes C", 60);
+        mEngine.visit("https://a.com", "Recipes A", 1);
+        mEngine.visit("https://e.com", "Recipes E", 200);
+        mEngine.visit("https://b.com", "Recipes B", 10);
+        mEngine.visit("https://d.com", "Recipes D", 20);
+        mEngine.update();
+
+        List<SuggestionItem> items = mEngine.query("recipes", 10);
+        assertUrls(items, "https://a.com", "https://b.com", "https://d.com", "https://c.com", "https://e.com");
+        assertEquals(100, items.get(0).score);
+        assertEquals(70, items.get(1).score);
+        assertEquals(50, items.get(2).score);
+        assertEquals(30, items.get(3).score);
+        assertEquals(10, items.get(4).score);
+        assertEquals(SuggestionItem.Type.HISTORY, items.get(0).type);
+    }
+
+    @Test
+    public void visitsAddUp() throws Exception {
+        mEngine.visit("https://a.com", "News A", 1);
+        mEngine.visit("https://b.com", "News B", 200);
+        mEngine.visit("https://b.com", "News B", 100);
+        mEngine.visit("https://b.com", "News B", 100);
+        mEngine.visit("https://c.com", "News C", 100, VisitType.TYPED);
+        mEngine.update();
+
+        // Typed visits count twice.
+        List<SuggestionItem> items = mEngine.query("news", 10);
+        assertUrls(items, "https://a.com", "https://b.com", "https://c.com");
+        assertEquals(30, items.get(1).score);
+        assertEquals(20, items.get(2).score);
+    }
+
+    @Test
+    public void bookmarksAndUrlPrefix() throws Exception {
+        mEngine.visit("https://a.com/docs", "Docs A", 1);
+        mEngine.visit("https://docs.b.com", "B", 10);
+        mEngine.bookmark("https://c.com/docs", "Docs C");
+        mEngine.update();
+
+        List<SuggestionItem> items = mEngine.query("docs", 10);
+        assertUrls(items, "https://c.com/docs", "https://docs.b.com", "https://a.com/docs");
+        assertEquals(SuggestionItem.Type.BOOKMARK, items.get(0).type);
+        assertEquals(200, items.get(0).score);
+        assertEquals(140, items.get(1).score);
+    }
+
+    @Test
+    public void topResults() throws Exception {
+        // The number of visits of each page is its index, so the best pages are the last ones.
+        for (int i = 0; i < 40; i++) {
+            for (int visit = 0; visit < i; visit++) {
+                mEngine.visit("https://site" + i + ".com", "Page " + i, 1);
+            }
+        }
+        mEngine.update();
+
+        List<SuggestionItem> items = mEngine.query("page", 5);
+        assertUrls(items, "https://site39.com", "https://site38.com", "https://site37.com", "https://site36.com", "https://site35.com");
+        assertEquals(3900, items.get(0).score);
+        assertEquals(3500, items.get(4).score);
+    }
+
+    @Test
+    public void allTermsMatch() throws Exception {
+        mEngine.visit("https://a.com", "Firefox Reality", 1);
+        mEngine.visit("https://b.com", "Firefox Nightly", 1);
+        mEngine.update();
+
+        assertUrls(mEngine.query("fire real", 10), "https://a.com");
+        assertUrls(mEngine.query("nightly fire", 10), "https://b.com");
+        assertTrue(mEngine.query("fire beta", 10).isEmpty());
+    }
+
+    @Test
+    public void extendedQueries() throws Exception {
+        mEngine.visit("https://a.com", "Example one", 1);
+        mEngine.visit("https://b.com", "Example two", 10);
+        mEngine.visit("https://c.com", "Exact", 20);
+        mEngine.update();
+
+        assertUrls(mEngine.query("ex", 10), "https://a.com", "https://b.com", "https://c.com");
+        assertUrls(mEngine.query("exa", 10), "https://a.com", "https://b.com", "https://c.com");
+        assertUrls(mEngine.query("examp", 10), "https://a.com", "https://b.com");
+        assertUrls(mEngine.query("example t", 10), "https://b.com");
+        // Shorter queries don't reuse the matches of the longer ones.
+        assertUrls(mEngine.query("ex", 10), "https://a.com", "https://b.com", "https://c.com");
+    }
+
+    @Test
+    public void incrementalBuild() throws Exception {
+        mEngine.visit("https://a.com", "Example A", 1);
+        mEngine.update();
+        assertEquals(0, mEngine.lastSince);
+        assertUrls(mEngine.query("ex", 10), "https://a.com");
+
+        mEngine.visit("https://b.com", "Example B", 0);
+        mEngine.visit("https://a.com", "Example A", 0);
+        mEngine.update();
+
+        // Only the new visits are read, and they add to the ones already indexed.
+        assertEquals(mEngine.visits.get(0).getVisitTime() + 1, mEngine.lastSince);
+        List<SuggestionItem> items = mEngine.query("exa", 10);
+        assertUrls(items, "https://a.com", "https://b.com");
+        assertEquals(200, items.get(0).score);
+    }
+
+    @Test
+    public void removedVisitsInvalidateMatches() throws Exception {
+        mEngine.visit("https://a.com", "Example A", 1);
+        mEngine.visit("https://b.com", "Example B", 10);
+        mEngine.update();
+        assertUrls(mEngine.query("ex", 10), "https://a.com", "https://b.com");
+
+        mEngine.visits.remove(0);
+        mEngine.removalGeneration++;
+        mEngine.update();
+
+        // The history is read again, and the extended query doesn't reuse the removed match.
+        assertEquals(0, mEngine.lastSince);
+        assertUrls(mEngine.query("exa", 10), "https://b.com");
+        assertUrls(mEngine.query("ex", 10), "https://b.com");
+    }
+}
@@ -0,0 +1,123 @@
+package org.mozilla.vrbrowser.search.suggestions;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import mozilla.components.browser.search.SearchEngine;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SuggestionParserTest {
+
+    private static final int LIMIT = 10;
+
+    private static List<String> parse(String aEngineName, String aResponse, Charset aCharset, int aLimit) {
+        SearchEngine engine = new SearchEngine(aEngineName.toLowerCase(), aEngineName,
+                Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888),
+                Collections.singletonList("https://example.com/search?q={searchTerms}"),
+                "https://example.com/complete?q={searchTerms}");
+        return SuggestionParser.selectResponseParser(engine).parse(aResponse.getBytes(aCharset), aCharset, aLimit);
+    }
+
+    private static List<String> parse(String aEngineName, String aResponse, int aLimit) {
+        return parse(aEngineName, aResponse, StandardCharsets.UTF_8, aLimit);
+    }
+
+    private static List<String> parse(String aEngineName, String aResponse) {
+        return parse(aEngineName, aResponse, LIMIT);
+    }
+
+    @Test
+    public void defaultArray() {
+        assertEquals(Arrays.asList("firefox", "fire tv"),
+                parse("Google", "[\"fire\",[\"firefox\",\"fire tv\"],[\"\",\"\"],[],{\"google:suggesttype\":[]}]"));
+        assertEquals(Arrays.asList("firefox", "fire tv"),
+                parse("DuckDuckGo", "[\"fire\",[\"firefox\",\"fire tv\"]]"));
+    }
+
+    @Test
+    public void defaultArrayWithoutResults() {
+        assertTrue(parse("Google", "[\"fire\",[]]").isEmpty());
+        assertTrue(parse("Google", "[\"fire\"]").isEmpty());
+        assertTrue(parse("Google", "[]").isEmpty());
+    }
+
+    @Test
+    public void limit() {
+        assertEquals(Arrays.asList("a", "b"), parse("Google", "[\"q\",[\"a\",\"b\",\"c\",\"d\"]]", 2));
+        assertTrue(parse("Google", "[\"q\",[\"a\",\"b\"]]", 0).isEmpty());
+    }
+
+    @Test
+    public void restOfResponseIsNotRead() {
+        // The response is broken after the limit, which is only noticed if it is read.
+        assertEquals(Arrays.asList("a", "b"), parse("Google", "[\"q\",[\"a\",\"b\",\"c\", }}}", 2));
+        assertEquals(Arrays.asList("a", "b"), parse("Azerdict", "{\"suggestions\":[\"a\",\"b\",\"c\"", 2));
+    }
+
+    @Test
+    public void itemTypes() {
+        // Numbers are kept as text, objects use their value and anything else is skipped.
+        assertEquals(Arrays.asList("42", "a", "b"),
+                parse("Google", "[\"q\",[42,null,true,[\"x\"],{\"value\":\"a\"},{\"other\":\"x\"},\"b\"]]"));
+    }
+
+    @Test
+    public void skippedItemsDontCountForTheLimit() {
+        assertEquals(Arrays.asList("a", "b"), parse("Google", "[\"q\",[null,\"a\",{},\"b\",\"c\"]]", 2));
+    }
+
+    @Test
+    public void azerdict() {
+        assertEquals(Arrays.asList("salam", "salamat"),
+                parse("Azerdict", "{\"query\":\"sal\",\"meta\":{\"suggestions\":[\"x\"]},\"suggestions\":[\"salam\",\"salamat\"]}"));
+        assertTrue(parse("Azerdict", "{\"query\":\"sal\"}").isEmpty());
+    }
+
+    @Test
+    public void daum() {
+        assertEquals(Arrays.asList("서울", "서울역"),
+                parse("다음지도", "{\"q\":\"서울\",\"items\":[\"서울\",\"서울역\"]}"));
+    }
+
+    @Test
+    public void qwant() {
+        assertEquals(Arrays.asList("firefox", "fire tv"),
+                parse("Qwant", "{\"status\":\"success\",\"data\":{\"items\":[" +
+                        "{\"value\":\"firefox\",\"suggestType\":3},{\"suggestType\":3,\"value\":\"fire tv\"}" +
+                        "],\"special\":[]}}"));
+        assertTrue(parse("Qwant", "{\"status\":\"error\",\"data\":{\"error_code\":22}}").isEmpty());
+        assertTrue(parse("Qwant", "{\"status\":\"error\"}").isEmpty());
+    }
+
+    @Test
+    public void charset() {
+        assertEquals(Collections.singletonList("café"),
+                parse("Google", "[\"caf\",[\"café\"]]", StandardCharsets.ISO_8859_1, LIMIT));
+        assertEquals(Collections.singletonList("café"),
+                parse("Google", "[\"caf\",[\"café\"]]", StandardCharsets.UTF_16, LIMIT));
+    }
+
+    @Test
+    public void malformedResponses() {
+        assertTrue(parse("Google", "").isEmpty());
+        assertTrue(parse("Google", "<html>Error</html>").isEmpty());
+        assertTrue(parse("Google", "{\"error\":1}").isEmpty());
+        assertTrue(parse("Azerdict", "[\"q\",[\"a\"]]").isEmpty());
+        assertTrue(parse("Qwant", "{\"data\":[]}").isEmpty());
+        // Items read before the response breaks are kept.
+        assertEquals(Collections.singletonList("a"), parse("Google", "[\"q\",[\"a\","));
+    }
+}
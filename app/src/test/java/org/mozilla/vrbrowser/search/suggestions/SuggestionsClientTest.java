@@ -0,0 +1,205 @@
+package org.mozilla.vrbrowser.search.suggestions;
+
+import android.graphics.Bitmap;
+
+import com.loopj.android.http.AsyncHttpResponseHandler;
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.message.BasicHeader;
+import mozilla.components.browser.search.SearchEngine;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SuggestionsClientTest {
+
+    /**
+     * Client recording the requests instead of sending them, with responses parsed on the calling
+     * thread.
+     */
+    private static class TestClient extends SuggestionsClient {
+        final ArrayList<String> urls = new ArrayList<>();
+        final ArrayList<AsyncHttpResponseHandler> handlers = new ArrayList<>();
+
+        TestClient() {
+            super(Runnable::run);
+        }
+
+        @Override
+        RequestHandle sendRequest(String aUrl, ResponseHandlerInterface aHandler) {
+            urls.add(aUrl);
+            handlers.add((AsyncHttpResponseHandler) aHandler);
+            return null;
+        }
+
+        void respond(String aResponse) {
+            handlers.get(handlers.size() - 1).onSuccess(200, new Header[0], aResponse.getBytes(StandardCharsets.UTF_8));
+            ShadowLooper.idleMainLooper();
+        }
+    }
+
+    private TestClient mClient;
+    private SearchEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mClient = new TestClient();
+        mEngine = createEngine("google", "Google");
+    }
+
+    private static SearchEngine createEngine(String aIdentifier, String aName) {
+        return new SearchEngine(aIdentifier, aName, Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888),
+                Collections.singletonList("https://" + aIdentifier + ".com/search?q={searchTerms}"),
+                "https://" + aIdentifier + ".com/complete?q={searchTerms}");
+    }
+
+    private static String url(String aQuery) {
+        return "https://suggest.com/?q=" + aQuery;
+    }
+
+    private static void debounce() {
+        ShadowLooper.idleMainLooper(200, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void requestIsDebounced() {
+        CompletableFuture<List<String>> result = mClient.getSuggestions(mEngine, "fire", url("fire"));
+
+        assertTrue(mClient.urls.isEmpty());
+        debounce();
+        assertEquals(Collections.singletonList(url("fire")), mClient.urls);
+        assertFalse(result.isDone());
+    }
+
+    @Test
+    public void responseIsParsed() throws Exception {
+        CompletableFuture<List<String>> result = mClient.getSuggestions(mEngine, "fire", url("fire"));
+        debounce();
+        mClient.respond("[\"fire\",[\"firefox\",\"fire tv\"]]");
+
+        assertTrue(result.isDone());
+        assertEquals(Arrays.asList("firefox", "fire tv"), result.get());
+    }
+
+    @Test
+    public void newQueryCancelsPendingRequest() throws Exception {
+        CompletableFuture<List<String>> first = mClient.getSuggestions(mEngine, "f", url("f"));
+        CompletableFuture<List<String>> second = mClient.getSuggestions(mEngine, "fi", url("fi"));
+        debounce();
+
+        assertTrue(first.isCancelled());
+        assertEquals(Collections.singletonList(url("fi")), mClient.urls);
+        mClient.respond("[\"fi\",[\"fiat\"]]");
+        assertEquals(Collections.singletonList("fiat"), second.get());
+    }
+
+    @Test
+    public void sameQueryIsCached() throws Exception {
+        mClient.getSuggestions(mEngine, "fire", url("fire"));
+        debounce();
+        mClient.respond("[\"fire\",[\"firefox\",\"fire tv\"]]");
+
+        CompletableFuture<List<String>> result = mClient.getSuggestions(mEngine, "fire", url("fire"));
+        assertTrue(result.isDone());
+        assertEquals(Arrays.asList("firefox", "fire tv"), result.get());
+        debounce();
+        assertEquals(1, mClient.urls.size());
+    }
+
+    @Test
+    public void longerQueryIsRequested() throws Exception {
+        // The engine may return suggestions for the longer query that it didn't list for the prefix.
+        mClient.getSuggestions(mEngine, "fire", url("fire"));
+        debounce();
+        mClient.respond("[\"fire\",[\"firefox\",\"fire tv\"]]");
+
+        CompletableFuture<List<String>> result = mClient.getSuggestions(mEngine, "firef", url("firef"));
+        assertFalse(result.isDone());
+        debounce();
+        assertEquals(Arrays.asList(url("fire"), url("firef")), mClient.urls);
+        mClient.respond("[\"firef\",[\"firefox\",\"firefox reality\"]]");
+        assertEquals(Arrays.asList("firefox", "firefox reality"), result.get());
+    }
+
+    @Test
+    public void cacheIsPerEngine() throws Exception {
+        mClient.getSuggestions(mEngine, "fire", url("fire"));
+        debounce();
+        mClient.respond("[\"fire\",[\"firefox\"]]");
+
+        CompletableFuture<List<String>> result = mClient.getSuggestions(createEngine("bing", "Bing"), "fire", url("fire"));
+        assertFalse(result.isDone());
+        debounce();
+        assertEquals(2, mClient.urls.size());
+    }
+
+    @Test
+    public void failureIsReported() {
+        CompletableFuture<List<String>> result = mClient.getSuggestions(mEngine, "fire", url("fire"));
+        debounce();
+        mClient.handlers.get(0).onFailure(500, new Header[0], null, new Exception("Server error"));
+
+        assertTrue(result.isCompletedExceptionally());
+        try {
+            result.get();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof ExecutionException);
+        }
+
+        // Failed queries are not cached.
+        mClient.getSuggestions(mEngine, "fire", url("fire"));
+        debounce();
+        assertEquals(2, mClient.urls.size());
+    }
+
+    @Test
+    public void charset() {
+        assertEquals(StandardCharsets.UTF_8, SuggestionsClient.getCharset(null));
+        assertEquals(StandardCharsets.UTF_8, SuggestionsClient.getCharset(new Header[] {
+                new BasicHeader("Content-Type", "application/json")
+        }));
+        assertEquals(StandardCharsets.ISO_8859_1, SuggestionsClient.getCharset(new Header[] {
+                new BasicHeader("Server", "test"),
+                new BasicHeader("content-type", "application/json; Charset=\"ISO-8859-1\"")
+        }));
+        assertEquals(Charset.forName("EUC-KR"), SuggestionsClient.getCharset(new Header[] {
+                new BasicHeader("Content-Type", "text/javascript;charset=euc-kr")
+        }));
+        assertEquals(StandardCharsets.UTF_8, SuggestionsClient.getCharset(new Header[] {
+                new BasicHeader("Content-Type", "application/json; charset=unknown-charset")
+        }));
+    }
+
+    @Test
+    public void responseInHeaderCharset() throws Exception {
+        CompletableFuture<List<String>> result = mClient.getSuggestions(mEngine, "cafe", url("cafe"));
+        debounce();
+        mClient.handlers.get(0).onSuccess(200, new Header[] {
+                new BasicHeader("Content-Type", "application/json; charset=ISO-8859-1")
+        }, "[\"cafe\",[\"caf\u00e9\"]]".getBytes(StandardCharsets.ISO_8859_1));
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(Collections.singletonList("caf\u00e9"), result.get());
+    }
+}
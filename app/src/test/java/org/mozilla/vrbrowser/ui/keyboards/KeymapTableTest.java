@@ -0,0 +1,135 @@
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class KeymapTableTest {
+
+    private static KeymapTable createTable() {
+        KeymapTable.Builder builder = new KeymapTable.Builder(2);
+        builder.add("ni", 3, "你", null);
+        builder.add("nihao", 1, "你好", "nǐ hǎo");
+        builder.add("hao", 2, "好", null);
+        builder.add("ni", 5, "尼", null);
+        builder.add("nin", 4, "您", null);
+        builder.add("a", 6, "啊", null);
+        return builder.build();
+    }
+
+    @Test
+    public void keysAreSorted() {
+        KeymapTable table = createTable();
+
+        assertEquals(5, table.size());
+        assertEquals("a", table.getKey(0));
+        assertEquals("hao", table.getKey(1));
+        assertEquals("ni", table.getKey(2));
+        assertEquals("nihao", table.getKey(3));
+        assertEquals("nin", table.getKey(4));
+    }
+
+    @Test
+    public void find() {
+        KeymapTable table = createTable();
+
+        assertEquals(2, table.find("ni"));
+        assertEquals(3, table.find("nihao"));
+        assertEquals(-1, table.find("n"));
+        assertEquals(-1, table.find("nih"));
+        assertEquals(-1, table.find("z"));
+        assertEquals(-1, table.find(""));
+    }
+
+    @Test
+    public void rowsKeepTheirOrder() {
+        KeymapTable table = createTable();
+        int key = table.find("ni");
+
+        assertEquals(2, table.getFirstRow(key + 1) - table.getFirstRow(key));
+        int row = table.getFirstRow(key);
+        assertEquals("你", table.getField(row, 0));
+        assertEquals(3, table.getValue(row));
+        assertEquals("尼", table.getField(row + 1, 0));
+        assertEquals(5, table.getValue(row + 1));
+        assertNull(table.getField(row, 1));
+
+        row = table.getFirstRow(table.find("nihao"));
+        assertEquals("你好", table.getField(row, 0));
+        assertEquals("nǐ hǎo", table.getField(row, 1));
+    }
+
+    @Test
+    public void findPrefixRange() {
+        KeymapTable table = createTable();
+
+        assertArrayEquals(new int[]{2, 5}, table.findPrefixRange("n"));
+        assertArrayEquals(new int[]{2, 5}, table.findPrefixRange("ni"));
+        assertArrayEquals(new int[]{3, 4}, table.findPrefixRange("nih"));
+        assertArrayEquals(new int[]{4, 5}, table.findPrefixRange("nin"));
+        assertArrayEquals(new int[]{0, 5}, table.findPrefixRange(""));
+        int[] range = table.findPrefixRange("nihaoma");
+        assertEquals(range[0], range[1]);
+        range = table.findPrefixRange("b");
+        assertEquals(range[0], range[1]);
+    }
+
+    @Test
+    public void getPrefixKeys() {
+        KeymapTable table = createTable();
+
+        assertArrayEquals(new int[]{-1, 2, -1, -1, 3}, table.getPrefixKeys("nihaoma", 0));
+        assertArrayEquals(new int[]{-1, -1, 1}, table.getPrefixKeys("nihaoma", 2));
+        assertArrayEquals(new int[]{-1, 2, 4}, table.getPrefixKeys("nin", 0));
+        assertArrayEquals(new int[]{0}, table.getPrefixKeys("ab", 0));
+        assertArrayEquals(new int[0], table.getPrefixKeys("zzz", 0));
+        assertArrayEquals(new int[0], table.getPrefixKeys("ni", 2));
+    }
+
+    @Test
+    public void extendPrefixKeys() {
+        KeymapTable table = createTable();
+        int[] keys = new int[7];
+        int[] ranges = new int[14];
+
+        assertEquals(2, table.extendPrefixKeys("ni", 0, 0, keys, ranges));
+        assertArrayEquals(new int[]{2, 5}, Arrays.copyOfRange(ranges, 2, 4));
+        // The text grew, so the walk resumes from the last prefix.
+        assertEquals(5, table.extendPrefixKeys("nihaoma", 0, 2, keys, ranges));
+        assertArrayEquals(table.getPrefixKeys("nihaoma", 0), Arrays.copyOf(keys, 5));
+        // The text changed after the first character, so the walk resumes from it.
+        assertEquals(3, table.extendPrefixKeys("nin", 0, 1, keys, ranges));
+        assertArrayEquals(table.getPrefixKeys("nin", 0), Arrays.copyOf(keys, 3));
+        assertEquals(0, table.extendPrefixKeys("zzz", 0, 0, keys, ranges));
+    }
+
+    @Test
+    public void getRowKey() {
+        KeymapTable table = createTable();
+
+        for (int key = 0; key < table.size(); key++) {
+            for (int row = table.getFirstRow(key); row < table.getFirstRow(key + 1); row++) {
+                assertEquals(key, table.getRowKey(row));
+            }
+        }
+        assertEquals(6, table.getFirstRow(table.size()));
+    }
+
+    @Test
+    public void emptyTable() {
+        KeymapTable table = new KeymapTable.Builder(1).build();
+
+        assertEquals(0, table.size());
+        assertEquals(0, table.getFirstRow(0));
+        assertEquals(-1, table.find("ni"));
+        assertArrayEquals(new int[]{0, 0}, table.findPrefixRange("ni"));
+        assertArrayEquals(new int[0], table.getPrefixKeys("ni", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongFieldCount() {
+        new KeymapTable.Builder(2).add("ni", 0, "你");
+    }
+}
@@ -0,0 +1,130 @@
+package org.mozilla.vrbrowser.ui.keyboards;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.vrbrowser.ui.keyboards.KeyboardInterface.Words;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PinyinLatticeTest {
+
+    private static final String[][] KEYMAPS = {
+            {"ni", "你"}, {"hao", "好"}, {"nihao", "你好"}, {"ma", "吗"},
+            {"zhong", "中"}, {"guo", "国"}, {"zhongguo", "中国"}, {"ren", "人"},
+            {"fan", "反"}, {"fang", "方"}, {"gan", "干"}, {"an", "安"}, {"fangan", null},
+            {"xi", "西"}, {"xian", "先"}, {"a", "啊"}, {"n", null},
+    };
+
+    private KeymapTable mKeymaps;
+    private PinyinLattice mLattice;
+    private int mWordLookups;
+
+    @Before
+    public void setUp() {
+        KeymapTable.Builder builder = new KeymapTable.Builder(1);
+        for (String[] keymap : KEYMAPS) {
+            builder.add(keymap[0], 0, keymap[1]);
+        }
+        mKeymaps = builder.build();
+        mLattice = createLattice();
+    }
+
+    private PinyinLattice createLattice() {
+        return new PinyinLattice(key -> {
+            mWordLookups++;
+            String display = mKeymaps.getField(mKeymaps.getFirstRow(key), 0);
+            return display != null ? new Words(1, mKeymaps.getKey(key), display) : null;
+        });
+    }
+
+    private Words update(String aText) {
+        mLattice.update(mKeymaps, aText);
+        return mLattice.getBestCandidate();
+    }
+
+    private static void assertCandidate(String aCode, String aValue, int aKeys, Words aCandidate) {
+        assertEquals(aCode, aCandidate.code);
+        assertEquals(aValue, aCandidate.value);
+        assertEquals(aKeys, aCandidate.syllable);
+    }
+
+    @Test
+    public void phrasesArePreferred() {
+        assertCandidate("nihao", "你好", 1, update("nihao"));
+        assertCandidate("zhongguo ren", "中国人", 2, update("zhongguoren"));
+        assertCandidate("nihao zhongguo", "你好中国", 2, update("nihaozhongguo"));
+    }
+
+    @Test
+    public void tiesGoToLongestLeadingKeys() {
+        // Both "fang an" and "fan gan" have two keys, and "fangan" has no word.
+        assertCandidate("fang an", "方安", 2, update("fangan"));
+        assertCandidate("xian", "先", 1, update("xian"));
+        // The paths only differ after the first key.
+        assertCandidate("ma fang an", "吗方安", 3, update("mafangan"));
+    }
+
+    @Test
+    public void longestReachablePart() {
+        assertCandidate("nihao", "你好", 1, update("nihaoq"));
+        assertCandidate("", "", 0, update("q"));
+        assertCandidate("", "", 0, update("qnihao"));
+    }
+
+    @Test
+    public void nonLatinCharacters() {
+        assertCandidate("AB ni", "AB你", 2, update("ABni"));
+        assertCandidate("ni 2 hao", "你2好", 3, update("ni2hao"));
+        assertCandidate("1", "1", 1, update("1"));
+    }
+
+    @Test
+    public void typingOnlyLooksUpNewWords() {
+        String text = "nihaozhongguoren";
+        for (int i = 1; i < text.length(); i++) {
+            update(text.substring(0, i));
+        }
+        mWordLookups = 0;
+        assertCandidate("nihao zhongguo ren", "你好中国人", 3, update(text));
+        // Only the key ending at the new character, "ren", is looked up.
+        assertEquals(1, mWordLookups);
+    }
+
+    @Test
+    public void keymapsChange() {
+        assertCandidate("nihao", "你好", 1, update("nihao"));
+
+        mKeymaps = new KeymapTable.Builder(1).build();
+        assertCandidate("", "", 0, update("nihao"));
+    }
+
+    @Test
+    public void updatesMatchNewLattice() {
+        // Random typing, deletions and edits in the middle give the same result as a new lattice.
+        Random random = new Random(42);
+        String letters = "nihaozgurmfxA1";
+        String text = "";
+        for (int i = 0; i < 2000; i++) {
+            int action = random.nextInt(10);
+            if (action < 6 || text.isEmpty()) {
+                text += letters.charAt(random.nextInt(letters.length()));
+            } else if (action < 9) {
+                text = text.substring(0, text.length() - 1);
+            } else {
+                int position = random.nextInt(text.length());
+                text = text.substring(0, position) + letters.charAt(random.nextInt(letters.length())) + text.substring(position + 1);
+            }
+            if (text.length() > 20) {
+                text = text.substring(10);
+            }
+
+            Words candidate = update(text);
+            PinyinLattice lattice = createLattice();
+            lattice.update(mKeymaps, text);
+            Words expected = lattice.getBestCandidate();
+            assertCandidate(expected.code, expected.value, expected.syllable, candidate);
+        }
+    }
+}
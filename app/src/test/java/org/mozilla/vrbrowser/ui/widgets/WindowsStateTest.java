@@ -0,0 +1,91 @@
+package org.mozilla.vrbrowser.ui.widgets;
+
+import org.junit.Test;
+import org.mozilla.vrbrowser.browser.engine.SessionState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class WindowsStateTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        Windows.WindowsState state = new Windows.WindowsState();
+        state.privateMode = true;
+        state.focusedWindowPlacement = Windows.WindowPlacement.RIGHT;
+
+        Windows.WindowState window = new Windows.WindowState();
+        window.placement = Windows.WindowPlacement.LEFT;
+        window.textureWidth = 800;
+        window.textureHeight = 450;
+        window.worldWidth = 1.5f;
+        window.tabIndex = 0;
+        window.panelType = Windows.PanelType.HISTORY;
+        state.regularWindowsState.add(window);
+
+        SessionState tab = new SessionState();
+        tab.mUri = "https://www.mozilla.org/";
+        tab.mTitle = "Mozilla";
+        tab.mLastUse = 1234;
+        state.tabs.add(tab);
+
+        Windows.WindowsState restored = readState(writeState(state));
+
+        assertTrue(restored.privateMode);
+        assertEquals(Windows.WindowPlacement.RIGHT, restored.focusedWindowPlacement);
+        assertEquals(1, restored.regularWindowsState.size());
+        Windows.WindowState restoredWindow = restored.regularWindowsState.get(0);
+        assertEquals(Windows.WindowPlacement.LEFT, restoredWindow.placement);
+        assertEquals(800, restoredWindow.textureWidth);
+        assertEquals(450, restoredWindow.textureHeight);
+        assertEquals(1.5f, restoredWindow.worldWidth, 0.0f);
+        assertEquals(0, restoredWindow.tabIndex);
+        assertEquals(Windows.PanelType.HISTORY, restoredWindow.panelType);
+        assertEquals(1, restored.tabs.size());
+        assertEquals(tab.mId, restored.tabs.get(0).mId);
+        assertEquals(tab.mUri, restored.tabs.get(0).mUri);
+        assertEquals(tab.mTitle, restored.tabs.get(0).mTitle);
+        assertEquals(tab.mLastUse, restored.tabs.get(0).mLastUse);
+    }
+
+    @Test
+    public void nullEnumsRoundTrip() throws IOException {
+        Windows.WindowsState state = new Windows.WindowsState();
+        state.regularWindowsState.add(new Windows.WindowState());
+
+        Windows.WindowsState restored = readState(writeState(state));
+
+        assertNull(restored.regularWindowsState.get(0).placement);
+        assertNull(restored.regularWindowsState.get(0).panelType);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectUnknownVersion() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Windows.WINDOWS_STATE_MAGIC);
+        out.writeInt(Integer.MAX_VALUE);
+        out.flush();
+
+        readState(bytes.toByteArray());
+    }
+
+    private static byte[] writeState(Windows.WindowsState aState) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        aState.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Windows.WindowsState readState(byte[] aBytes) throws IOException {
+        Windows.WindowsState state = new Windows.WindowsState();
+        state.readFrom(new DataInputStream(new ByteArrayInputStream(aBytes)));
+        return state;
+    }
+}
@@ -0,0 +1,126 @@
+package org.mozilla.vrbrowser.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BitmapCacheTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private static class QueueExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable aTask) {
+            mTasks.add(aTask);
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+    }
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+    }
+
+    private BitmapCache createCache() {
+        BitmapCache cache = new BitmapCache(mContext, DIRECT, DIRECT, DIRECT);
+        cache.onCreate();
+        return cache;
+    }
+
+    private void breakDiskCache() throws IOException {
+        // The disk cache can't create its directory if there is a file with the same name.
+        File snapshots = new File(mContext.getCacheDir(), "snapshots");
+        assertTrue(snapshots.createNewFile());
+    }
+
+    @Test
+    public void missingBitmapWithoutDiskCache() throws Exception {
+        breakDiskCache();
+        BitmapCache cache = createCache();
+
+        assertTrue(cache.getBitmap("missing").isDone());
+        assertNull(cache.getBitmap("missing").get());
+        assertTrue(cache.getThumbnail("missing").isDone());
+        assertNull(cache.getThumbnail("missing").get());
+    }
+
+    @Test
+    public void thumbnailWithoutDiskCache() throws Exception {
+        breakDiskCache();
+        BitmapCache cache = createCache();
+        cache.addBitmap("tab", Bitmap.createBitmap(1024, 512, Bitmap.Config.ARGB_8888));
+        cache.flushPendingWrites();
+
+        CompletableFuture<Bitmap> result = cache.getThumbnail("tab");
+        assertTrue(result.isDone());
+        Bitmap thumbnail = result.get();
+        assertNotNull(thumbnail);
+        assertEquals(BitmapCache.THUMBNAIL_MAX_WIDTH, thumbnail.getWidth());
+        assertSame(thumbnail, cache.getThumbnail("tab").get());
+    }
+
+    @Test
+    public void trayThumbnailsDontWaitForWrites() throws Exception {
+        final int tabCount = 50;
+        BitmapCache writer = createCache();
+        for (int i = 0; i < tabCount; i++) {
+            writer.addBitmap("tab" + i, Bitmap.createBitmap(1024, 512, Bitmap.Config.ARGB_8888));
+        }
+        writer.flushPendingWrites();
+        writer.onDestroy();
+
+        // Snapshot writes stay queued on the IO executor while the tray reads the thumbnails.
+        QueueExecutor io = new QueueExecutor();
+        BitmapCache cache = new BitmapCache(mContext, io, DIRECT, DIRECT);
+        cache.onCreate();
+        io.runAll();
+        cache.addBitmap("current", Bitmap.createBitmap(1024, 512, Bitmap.Config.ARGB_8888));
+        cache.flushPendingWrites();
+        assertEquals(1, io.size());
+
+        for (int i = 0; i < tabCount; i++) {
+            CompletableFuture<Bitmap> result = cache.getThumbnail("tab" + i);
+            assertTrue(result.isDone());
+            Bitmap thumbnail = result.get();
+            // Decoded with the largest power of two subsampling that keeps it at the thumbnail size.
+            assertNotNull(thumbnail);
+            assertEquals(512, thumbnail.getWidth());
+            assertEquals(256, thumbnail.getHeight());
+            assertEquals(Bitmap.Config.RGB_565, thumbnail.getConfig());
+        }
+        assertNull(cache.getThumbnail("closed").get());
+
+        io.runAll();
+        assertNotNull(cache.getBitmap("current").get());
+    }
+}
@@ -0,0 +1,68 @@
+package org.mozilla.vrbrowser.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BloomFilterTest {
+
+    private static String url(int aIndex) {
+        return "https://www.example" + aIndex + ".com/page/" + (aIndex * 31);
+    }
+
+    @Test
+    public void emptyFilter() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+
+        assertFalse(filter.mightContain(url(0)));
+        assertFalse(filter.mightContain(""));
+    }
+
+    @Test
+    public void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(url(i));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(url(i), filter.mightContain(url(i)));
+        }
+    }
+
+    @Test
+    public void noFalseNegativesWhenOverfilled() {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(url(i));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(url(i), filter.mightContain(url(i)));
+        }
+    }
+
+    @Test
+    public void noExpectedEntries() {
+        BloomFilter filter = new BloomFilter(0, 0.01);
+        filter.add(url(1));
+
+        assertTrue(filter.mightContain(url(1)));
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(url(i));
+        }
+
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain(url(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 200);
+    }
+}